@@ -0,0 +1,205 @@
+// Copyright @ MyScript. All rights reserved.
+
+package com.myscript.iink.uireferenceimplementation;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Registry of the caches of the UI reference implementation, shrinking them on memory pressure.
+ * <p>
+ * Caches are held weakly, so registering a cache does not extend its lifetime. When the system
+ * reports memory pressure, caches are trimmed by priority: the cheapest to rebuild first.
+ */
+public final class CacheRegistry implements ComponentCallbacks2
+{
+  /**
+   * A cache that can report its memory use and be trimmed.
+   */
+  public interface Cache
+  {
+    /**
+     * @return the approximate memory used by the cache, in bytes.
+     */
+    long getByteCount();
+
+    /**
+     * Shrinks the cache.
+     *
+     * @param keepRatio the part of the current cache content to keep, in [0, 1[: 0 flushes the cache.
+     */
+    void trim(float keepRatio);
+  }
+
+  /** Cache that is cheap to rebuild, trimmed first. */
+  public static final int PRIORITY_LOW = 0;
+  public static final int PRIORITY_NORMAL = 1;
+  /** Cache that is expensive to rebuild, trimmed last. */
+  public static final int PRIORITY_HIGH = 2;
+  private static final int PRIORITY_COUNT = 3;
+
+  private static final class Entry
+  {
+    @NonNull
+    final WeakReference<Cache> cache;
+    final int priority;
+
+    Entry(@NonNull Cache cache, int priority)
+    {
+      this.cache = new WeakReference<>(cache);
+      this.priority = priority;
+    }
+  }
+
+  private static final CacheRegistry INSTANCE = new CacheRegistry();
+
+  private final List<Entry> entries = new ArrayList<>();
+  private boolean attached = false;
+
+  private CacheRegistry()
+  {
+  }
+
+  @NonNull
+  public static CacheRegistry getInstance()
+  {
+    return INSTANCE;
+  }
+
+  /**
+   * Listens to the memory pressure notifications of the application (only the first call has an effect).
+   */
+  public synchronized void attach(@NonNull Context context)
+  {
+    if (attached)
+      return;
+    context.getApplicationContext().registerComponentCallbacks(this);
+    attached = true;
+  }
+
+  public synchronized void register(@NonNull Cache cache, int priority)
+  {
+    for (Iterator<Entry> it = entries.iterator(); it.hasNext(); )
+    {
+      Cache registeredCache = it.next().cache.get();
+      if (registeredCache == null)
+        it.remove();
+      else if (registeredCache == cache)
+        return;
+    }
+    entries.add(new Entry(cache, Math.max(PRIORITY_LOW, Math.min(priority, PRIORITY_HIGH))));
+  }
+
+  public synchronized void unregister(@NonNull Cache cache)
+  {
+    for (Iterator<Entry> it = entries.iterator(); it.hasNext(); )
+    {
+      Cache registeredCache = it.next().cache.get();
+      if (registeredCache == null || registeredCache == cache)
+        it.remove();
+    }
+  }
+
+  /**
+   * @return the approximate memory used by all the registered caches, in bytes.
+   */
+  public long getByteCount()
+  {
+    long byteCount = 0;
+    for (Cache cache : getCaches(-1))
+      byteCount += cache.getByteCount();
+    return byteCount;
+  }
+
+  /**
+   * Flushes caches, from the lowest priority to the highest, until the memory used by all the
+   * registered caches is below a limit.
+   */
+  public void trimToByteCount(long maxByteCount)
+  {
+    for (int priority = PRIORITY_LOW; priority <= PRIORITY_HIGH; ++priority)
+    {
+      if (getByteCount() <= maxByteCount)
+        return;
+      for (Cache cache : getCaches(priority))
+        cache.trim(0);
+    }
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public void onTrimMemory(int level)
+  {
+    // part of each cache to keep, by priority
+    float[] keepRatios;
+    if (level >= TRIM_MEMORY_COMPLETE)
+      keepRatios = new float[]{0, 0, 0};
+    else if (level >= TRIM_MEMORY_MODERATE)
+      keepRatios = new float[]{0, 0, 0.5f};
+    else if (level >= TRIM_MEMORY_BACKGROUND)
+      keepRatios = new float[]{0, 0.5f, 1};
+    else if (level >= TRIM_MEMORY_UI_HIDDEN)
+      keepRatios = new float[]{0, 1, 1};
+    else if (level >= TRIM_MEMORY_RUNNING_CRITICAL)
+      keepRatios = new float[]{0, 0, 0.5f};
+    else if (level >= TRIM_MEMORY_RUNNING_LOW)
+      keepRatios = new float[]{0, 0.5f, 1};
+    else if (level >= TRIM_MEMORY_RUNNING_MODERATE)
+      keepRatios = new float[]{0.5f, 1, 1};
+    else
+      return;
+
+    trim(keepRatios);
+  }
+
+  @Override
+  public void onLowMemory()
+  {
+    trim(new float[]{0, 0, 0});
+  }
+
+  @Override
+  public void onConfigurationChanged(@NonNull Configuration newConfig)
+  {
+    // nothing to do
+  }
+
+  private void trim(@NonNull float[] keepRatios)
+  {
+    for (int priority = PRIORITY_LOW; priority < PRIORITY_COUNT; ++priority)
+    {
+      if (keepRatios[priority] >= 1)
+        continue;
+      for (Cache cache : getCaches(priority))
+        cache.trim(keepRatios[priority]);
+    }
+  }
+
+  /**
+   * @return the registered caches of a given priority, or of any priority if negative. Caches are
+   * trimmed out of the registry lock, as they use their own locks.
+   */
+  @NonNull
+  private synchronized List<Cache> getCaches(int priority)
+  {
+    List<Cache> caches = new ArrayList<>(entries.size());
+    for (Iterator<Entry> it = entries.iterator(); it.hasNext(); )
+    {
+      Entry entry = it.next();
+      Cache cache = entry.cache.get();
+      if (cache == null)
+        it.remove();
+      else if (priority < 0 || entry.priority == priority)
+        caches.add(cache);
+    }
+    return caches;
+  }
+}
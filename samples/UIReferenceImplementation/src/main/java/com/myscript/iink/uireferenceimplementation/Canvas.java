@@ -3,9 +3,9 @@
 package com.myscript.iink.uireferenceimplementation;
 
 import android.graphics.Bitmap;
-import android.graphics.DashPathEffect;
 import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Picture;
 import android.graphics.PointF;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
@@ -30,6 +30,7 @@ import com.myscript.iink.graphics.Style;
 import com.myscript.iink.graphics.Transform;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -42,8 +43,21 @@ import androidx.core.graphics.ColorUtils;
 
 public class Canvas implements ICanvas
 {
+  /** Full fidelity rendering (default). */
+  public static final int RENDER_QUALITY_FULL = 0;
+  /**
+   * Faster rendering, for frames displayed while the view moves: no anti-aliasing, no drop shadows,
+   * and extra brush strokes drawn as plain paths.
+   */
+  public static final int RENDER_QUALITY_REDUCED = 1;
 
   private static final Style DEFAULT_SVG_STYLE = new Style();
+  // Recorded items are shifted by this margin (in pixels), so that parts above or left of the view stay in the Picture bounds
+  private static final int ITEM_RECORDING_MARGIN = 8192;
+  // Margin (in pixels) added to recorded item bounds, to account for anti-aliasing and shadows
+  private static final float ITEM_BOUNDS_MARGIN = 4;
+  // Maximum number of pooled paths (high-water mark), extra paths are allocated and not pooled
+  private static final int PATH_POOL_MAX_SIZE = 1024;
   private static final PorterDuffXfermode xferModeSrcOver = new PorterDuffXfermode(PorterDuff.Mode.SRC_OVER);
 
   @Nullable
@@ -71,6 +85,14 @@ public class Canvas implements ICanvas
   private final Matrix transformMatrix;
   @NonNull
   private final float[] transformValues;
+  // Matrix applied to the Android canvas: transformMatrix translated by the canvas origin
+  @NonNull
+  private final Matrix canvasMatrix;
+  // Matrix applied to the Android canvas when drawing in pixels: translation by the canvas origin
+  @NonNull
+  private final Matrix pixelMatrix;
+  private float originX = 0;
+  private float originY = 0;
 
   // Cache variable to prevent garbage collection
   @NonNull
@@ -89,12 +111,67 @@ public class Canvas implements ICanvas
 
   private boolean clearOnStartDraw = true;
 
+  private int renderQuality = RENDER_QUALITY_FULL;
+  // last drop shadow set, applied again when going back to full quality
+  private float dropShadowXOffset = 0;
+  private float dropShadowYOffset = 0;
+  private float dropShadowRadius = 0;
+  @ColorInt
+  private int dropShadowColor = android.graphics.Color.TRANSPARENT;
+  // extra brush strokes in reduced quality
+  @NonNull
+  private final Paint plainStrokePaint;
+  @NonNull
+  private final android.graphics.Path plainStrokePath = new android.graphics.Path();
+
+  // whether images may be decoded in background, drawing a placeholder until they are ready
+  private boolean asynchronousImageLoading = false;
+  // whether a placeholder was drawn for an image not decoded yet, since the last startDraw()
+  private boolean pendingImages = false;
+
+  // Item drawing cache (optional)
+  @Nullable
+  private ItemDrawingCache itemCache = null;
+  // item being recorded
+  @Nullable
+  private String recordedItemId = null;
+  @Nullable
+  private ItemDrawingCache.ItemKey recordedItemKey = null;
+  @Nullable
+  private Picture recordedItemPicture = null;
+  @Nullable
+  private android.graphics.Canvas recordTarget = null;
+  @NonNull
+  private final RectF recordedItemBounds = new RectF();
+  private float recordedItemTx;
+  private float recordedItemTy;
+  private int recordedItemGeneration;
+  private float recordedItemViewScale;
+  private boolean recordedItemCacheable;
+  private int recordedItemByteCount;
+  // cached item being replayed: its draw calls are ignored
+  @Nullable
+  private String skippedItemId = null;
+  @NonNull
+  private final Path noOpPath = new NoOpPath();
+  @NonNull
+  private final Matrix replayMatrix = new Matrix();
+
+  // Paths handed out by createPath() during a draw, all released in endDraw()
+  @NonNull
+  private final List<Path> pathPool = new ArrayList<>();
+  private int pathPoolIndex = 0;
+  private long pathPoolHitCount = 0;
+  private long pathPoolMissCount = 0;
+
   private final List<String> clips;
 
   private final Map<String, Typeface> typefaceMap;
 
   private float[] dashArray;
   private float dashOffset = 0;
+  // the dash path effect is resolved once before the next stroke, after both dash setters are called
+  private boolean dashPathEffectChanged = false;
 
   private final float xdpi;
   private final float ydpi;
@@ -104,6 +181,48 @@ public class Canvas implements ICanvas
   @NonNull
   private final Matrix pointScaleMatrix;
 
+  /**
+   * Path ignoring all operations, handed out while the draw calls of a cached item are ignored.
+   */
+  private static final class NoOpPath extends Path
+  {
+    @Override
+    public void moveTo(float x, float y)
+    {
+      // no-op
+    }
+
+    @Override
+    public void lineTo(float x, float y)
+    {
+      // no-op
+    }
+
+    @Override
+    public void quadTo(float x1, float y1, float x2, float y2)
+    {
+      // no-op
+    }
+
+    @Override
+    public void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3)
+    {
+      // no-op
+    }
+
+    @Override
+    public void arcTo(float rx, float ry, float phi, boolean fA, boolean fS, float x, float y)
+    {
+      // no-op
+    }
+
+    @Override
+    public void close()
+    {
+      // no-op
+    }
+  }
+
   public static class ExtraBrushConfig
   {
     @NonNull
@@ -166,12 +285,19 @@ public class Canvas implements ICanvas
     fillPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
     fillPaint.setStyle(Paint.Style.FILL);
 
+    plainStrokePaint = new Paint();
+    plainStrokePaint.setStyle(Paint.Style.STROKE);
+    plainStrokePaint.setStrokeCap(Paint.Cap.ROUND);
+    plainStrokePaint.setStrokeJoin(Paint.Join.ROUND);
+
     transform = new Transform();
     transformMatrix = new Matrix();
     transformValues = new float[9];
     transformValues[Matrix.MPERSP_0] = 0;
     transformValues[Matrix.MPERSP_1] = 0;
     transformValues[Matrix.MPERSP_2] = 1;
+    canvasMatrix = new Matrix();
+    pixelMatrix = new Matrix();
 
     dashArray = null;
 
@@ -208,6 +334,90 @@ public class Canvas implements ICanvas
     this.keepGLRenderer = keepGLRenderer;
   }
 
+  /**
+   * Sets the rendering quality of the next draw calls.
+   *
+   * @param renderQuality {@link #RENDER_QUALITY_FULL} or {@link #RENDER_QUALITY_REDUCED}.
+   */
+  public void setRenderQuality(int renderQuality)
+  {
+    if (renderQuality == this.renderQuality)
+      return;
+    this.renderQuality = renderQuality;
+
+    boolean antiAlias = renderQuality == RENDER_QUALITY_FULL;
+    strokePaint.setAntiAlias(antiAlias);
+    textPaint.setAntiAlias(antiAlias);
+    fillPaint.setAntiAlias(antiAlias);
+    applyDropShadow();
+  }
+
+  public int getRenderQuality()
+  {
+    return renderQuality;
+  }
+
+  /**
+   * Allows the image loader to decode images in background, if it is configured to
+   * (see {@link ImageLoader#setAsynchronousDecoding(boolean)}). Default is disabled, so that
+   * offscreen rendering such as image export always draws the images.
+   */
+  void setAsynchronousImageLoading(boolean asynchronousImageLoading)
+  {
+    this.asynchronousImageLoading = asynchronousImageLoading;
+  }
+
+  /**
+   * @return {@code true} if a placeholder was drawn in place of an image still being decoded
+   * during the last draw.
+   */
+  boolean hasPendingImages()
+  {
+    return pendingImages;
+  }
+
+  /**
+   * Sets the cache used to record the draw calls of each item, and replay them on next frames.
+   *
+   * @param itemCache the item cache, {@code null} to disable item caching.
+   */
+  void setItemCache(@Nullable ItemDrawingCache itemCache)
+  {
+    this.itemCache = itemCache;
+  }
+
+  /**
+   * Sets the view position that maps to the top-left corner of the Android canvas.
+   * Used to render a sub-area of the view (such as a tile) into a smaller bitmap.
+   *
+   * @param originX the horizontal view position of the canvas origin, in pixels.
+   * @param originY the vertical view position of the canvas origin, in pixels.
+   */
+  public void setOrigin(float originX, float originY)
+  {
+    this.originX = originX;
+    this.originY = originY;
+    pixelMatrix.setTranslate(-originX, -originY);
+    canvasMatrix.set(transformMatrix);
+    canvasMatrix.postTranslate(-originX, -originY);
+  }
+
+  /**
+   * @return the number of {@link #createPath()} calls served by a pooled path.
+   */
+  public long getPathPoolHitCount()
+  {
+    return pathPoolHitCount;
+  }
+
+  /**
+   * @return the number of {@link #createPath()} calls that allocated a new path.
+   */
+  public long getPathPoolMissCount()
+  {
+    return pathPoolMissCount;
+  }
+
   private void applyStyle(@NonNull Style style)
   {
     setStrokeColor(style.getStrokeColor());
@@ -244,7 +454,9 @@ public class Canvas implements ICanvas
 
     Objects.requireNonNull(canvas);
     transformMatrix.setValues(transformValues);
-    canvas.setMatrix(transformMatrix);
+    canvasMatrix.set(transformMatrix);
+    canvasMatrix.postTranslate(-originX, -originY);
+    canvas.setMatrix(canvasMatrix);
 
     this.transform = transform;
   }
@@ -317,26 +529,39 @@ public class Canvas implements ICanvas
   {
     if (strokeDashArray == null || strokeDashArray.length == 0)
     {
+      if (dashArray == null)
+        return;
       dashArray = null;
     }
-    else
+    else if (!Arrays.equals(dashArray, strokeDashArray))
     {
       dashArray = new float[strokeDashArray.length];
       System.arraycopy(strokeDashArray, 0, dashArray, 0, strokeDashArray.length);
     }
-
-    if (dashArray != null)
-      strokePaint.setPathEffect(new DashPathEffect(dashArray, dashOffset));
     else
-      strokePaint.setPathEffect(null);
+    {
+      return;
+    }
+
+    dashPathEffectChanged = true;
   }
 
   @Override
   public void setStrokeDashOffset(float strokeDashOffset)
   {
+    if (strokeDashOffset == dashOffset)
+      return;
     dashOffset = strokeDashOffset;
+    dashPathEffectChanged = true;
+  }
+
+  private void updateDashPathEffect()
+  {
+    if (!dashPathEffectChanged)
+      return;
+    dashPathEffectChanged = false;
     if (dashArray != null)
-      strokePaint.setPathEffect(new DashPathEffect(dashArray, dashOffset));
+      strokePaint.setPathEffect(DashPathEffectCache.get(dashArray, dashOffset));
     else
       strokePaint.setPathEffect(null);
   }
@@ -349,6 +574,15 @@ public class Canvas implements ICanvas
     fillPaint.setColor(color);
   }
 
+  /**
+   * @return the current fill color, as set by the last draw commands.
+   */
+  @ColorInt
+  int getFillColor()
+  {
+    return fillPaint.getColor();
+  }
+
   @Override
   public void setFillRule(@NonNull FillRule fillRule)
   {
@@ -358,12 +592,25 @@ public class Canvas implements ICanvas
   @Override
   public void setDropShadow(float xOffset, float yOffset, float radius, @NonNull Color color)
   {
-    @ColorInt int androidColor = argb(color);
-    boolean isTransparent = color.a() == 0;
-    int opaqueColor = ColorUtils.setAlphaComponent(androidColor, 0xFF);
-    strokePaint.setShadowLayer(radius / 20f, xOffset, yOffset, isTransparent ? android.graphics.Color.TRANSPARENT : opaqueColor);
-    textPaint.setShadowLayer(radius / 10f, xOffset * 2.5f, yOffset * 5f, isTransparent ? android.graphics.Color.TRANSPARENT : opaqueColor);
-    fillPaint.setShadowLayer(radius / 20f, xOffset, yOffset, isTransparent ? android.graphics.Color.TRANSPARENT : opaqueColor);
+    dropShadowXOffset = xOffset;
+    dropShadowYOffset = yOffset;
+    dropShadowRadius = radius;
+    dropShadowColor = color.a() == 0 ? android.graphics.Color.TRANSPARENT : ColorUtils.setAlphaComponent(argb(color), 0xFF);
+    applyDropShadow();
+  }
+
+  private void applyDropShadow()
+  {
+    if (renderQuality == RENDER_QUALITY_REDUCED)
+    {
+      strokePaint.clearShadowLayer();
+      textPaint.clearShadowLayer();
+      fillPaint.clearShadowLayer();
+      return;
+    }
+    strokePaint.setShadowLayer(dropShadowRadius / 20f, dropShadowXOffset, dropShadowYOffset, dropShadowColor);
+    textPaint.setShadowLayer(dropShadowRadius / 10f, dropShadowXOffset * 2.5f, dropShadowYOffset * 5f, dropShadowColor);
+    fillPaint.setShadowLayer(dropShadowRadius / 20f, dropShadowXOffset, dropShadowYOffset, dropShadowColor);
   }
 
   @Override
@@ -376,7 +623,8 @@ public class Canvas implements ICanvas
 
     // scale font size to the canvas transform scale, to ensure best font rendering
     // (text size is expressed in pixels, while fontSize is in mm)
-    textPaint.setTypeface(typeface);
+    if (textPaint.getTypeface() != typeface)
+      textPaint.setTypeface(typeface);
     textPaint.setTextSize(Math.round((fontSize / 25.4f) * ydpi));
   }
 
@@ -385,6 +633,9 @@ public class Canvas implements ICanvas
   {
     Objects.requireNonNull(canvas);
     canvas.save();
+    if (originX != 0 || originY != 0)
+      canvas.translate(-originX, -originY);
+    pendingImages = false;
 
     pointsCache[0] = x;
     pointsCache[1] = y;
@@ -409,6 +660,9 @@ public class Canvas implements ICanvas
       glRenderer = null;
     }
 
+    // paths are only used during a draw: release them all for the next one
+    pathPoolIndex = 0;
+
     Objects.requireNonNull(canvas);
     canvas.restore();
   }
@@ -441,28 +695,135 @@ public class Canvas implements ICanvas
   @Override
   public void startItem(@NonNull String id)
   {
-    // no-op
+    if (itemCache == null || canvas == null || recordedItemId != null || skippedItemId != null)
+      return;
+
+    ItemDrawingCache.ItemKey key = new ItemDrawingCache.ItemKey(id, transform);
+    ItemDrawingCache.Item item = itemCache.get(key);
+    if (item != null)
+    {
+      // replay the recorded draw calls at the current translation, and ignore the item draw calls
+      replayMatrix.setTranslate(transformValues[Matrix.MTRANS_X] - originX - item.deviceTx,
+          transformValues[Matrix.MTRANS_Y] - originY - item.deviceTy);
+      canvas.save();
+      canvas.setMatrix(replayMatrix);
+      canvas.drawPicture(item.picture);
+      canvas.restore();
+      skippedItemId = id;
+    }
+    else if (renderQuality == RENDER_QUALITY_FULL)
+    {
+      // record the item draw calls, shifted to stay in the Picture bounds
+      recordedItemId = id;
+      recordedItemKey = key;
+      recordedItemPicture = new Picture();
+      recordedItemBounds.setEmpty();
+      recordedItemTx = transformValues[Matrix.MTRANS_X];
+      recordedItemTy = transformValues[Matrix.MTRANS_Y];
+      recordedItemGeneration = itemCache.getGeneration();
+      recordedItemViewScale = itemCache.getViewScale();
+      recordedItemCacheable = true;
+      recordedItemByteCount = ItemDrawingCache.ITEM_BYTE_COUNT;
+
+      recordTarget = canvas;
+      canvas = recordedItemPicture.beginRecording(2 * ITEM_RECORDING_MARGIN, 2 * ITEM_RECORDING_MARGIN);
+      setOrigin(originX - ITEM_RECORDING_MARGIN, originY - ITEM_RECORDING_MARGIN);
+      canvas.setMatrix(canvasMatrix);
+    }
   }
 
   @Override
   public void endItem(@NonNull String id)
   {
-    // no-op
+    if (id.equals(skippedItemId))
+    {
+      skippedItemId = null;
+    }
+    else if (id.equals(recordedItemId))
+    {
+      Objects.requireNonNull(recordedItemPicture);
+      Objects.requireNonNull(recordTarget);
+      recordedItemPicture.endRecording();
+      setOrigin(originX + ITEM_RECORDING_MARGIN, originY + ITEM_RECORDING_MARGIN);
+      canvas = recordTarget;
+
+      // draw the recorded item
+      replayMatrix.setTranslate(-ITEM_RECORDING_MARGIN, -ITEM_RECORDING_MARGIN);
+      canvas.save();
+      canvas.setMatrix(replayMatrix);
+      canvas.drawPicture(recordedItemPicture);
+      canvas.restore();
+
+      if (recordedItemCacheable && itemCache != null && !recordedItemBounds.isEmpty())
+      {
+        float deviceTx = recordedItemTx - originX + ITEM_RECORDING_MARGIN;
+        float deviceTy = recordedItemTy - originY + ITEM_RECORDING_MARGIN;
+        ItemDrawingCache.Item item = new ItemDrawingCache.Item(recordedItemPicture, deviceTx, deviceTy, new RectF(recordedItemBounds), recordedItemViewScale, recordedItemByteCount);
+        itemCache.put(Objects.requireNonNull(recordedItemKey), item, recordedItemGeneration);
+      }
+
+      recordedItemId = null;
+      recordedItemKey = null;
+      recordedItemPicture = null;
+      recordTarget = null;
+    }
+  }
+
+  /**
+   * Adds an area, in current transform coordinates, to the bounds of the item being recorded.
+   * Item bounds are expressed in document space, i.e. without the translation of the item transform.
+   */
+  private void addRecordedItemBounds(@NonNull RectF area, float strokeWidth)
+  {
+    area.inset(-strokeWidth / 2, -strokeWidth / 2);
+    transformMatrix.mapRect(area);
+    area.offset(-recordedItemTx, -recordedItemTy);
+    area.inset(-ITEM_BOUNDS_MARGIN, -ITEM_BOUNDS_MARGIN);
+    recordedItemBounds.union(area);
   }
 
   @NonNull
   @Override
   public final IPath createPath()
   {
-    return new Path();
+    if (skippedItemId != null)
+      return noOpPath;
+
+    if (pathPoolIndex < pathPool.size())
+    {
+      Path path = pathPool.get(pathPoolIndex++);
+      path.rewind();
+      ++pathPoolHitCount;
+      return path;
+    }
+
+    ++pathPoolMissCount;
+    Path path = new Path();
+    if (pathPool.size() < PATH_POOL_MAX_SIZE)
+    {
+      pathPool.add(path);
+      ++pathPoolIndex;
+    }
+    return path;
   }
 
   @Override
   public void drawPath(@NonNull IPath ipath)
   {
+    if (skippedItemId != null)
+      return;
+
     Objects.requireNonNull(canvas);
     Path path = (Path) ipath;
 
+    if (recordedItemId != null)
+    {
+      path.computeBounds(floatRectCache, false);
+      addRecordedItemBounds(floatRectCache, strokePaint.getStrokeWidth());
+      // filled and stroked paths are recorded twice
+      recordedItemByteCount += 2 * (ItemDrawingCache.DRAW_CALL_BYTE_COUNT + path.getPointCount() * ItemDrawingCache.POINT_BYTE_COUNT);
+    }
+
     if (android.graphics.Color.alpha(fillPaint.getColor()) != 0)
     {
       path.setFillType(fillRule == FillRule.EVENODD ? android.graphics.Path.FillType.EVEN_ODD : android.graphics.Path.FillType.WINDING);
@@ -470,6 +831,7 @@ public class Canvas implements ICanvas
     }
     if (android.graphics.Color.alpha(strokePaint.getColor()) != 0)
     {
+      updateDashPathEffect();
       canvas.drawPath(path, strokePaint);
     }
   }
@@ -484,24 +846,37 @@ public class Canvas implements ICanvas
   public void drawStrokeWithExtraBrush(@NonNull InkPoints[] vInkPoints, int temporaryPoints,
                                        @NonNull ExtraBrushStyle style, boolean fullStroke, long id)
   {
+    if (skippedItemId != null)
+      return;
+
     Objects.requireNonNull(canvas);
 
     if (!isExtraBrushSupported(style.brushName))
       return;
 
+    // the stroke bitmap is owned by the GLRenderer: do not cache the item
+    recordedItemCacheable = false;
+
     if (vInkPoints.length == 0 || vInkPoints[0].x.length == 0 || style.strokeWidth <= 0.f || android.graphics.Color.alpha(fillPaint.getColor()) == 0)
       return;
 
+    if (renderQuality == RENDER_QUALITY_REDUCED)
+    {
+      drawPlainStroke(vInkPoints, style);
+      return;
+    }
+
     if (!glRenderer.isInitialized())
     {
-      glRenderer.initialize(keepGLRenderer, canvas.getWidth(), canvas.getHeight(), xdpi, ydpi);
+      android.graphics.Canvas targetCanvas = recordTarget != null ? recordTarget : canvas;
+      glRenderer.initialize(keepGLRenderer, targetCanvas.getWidth(), targetCanvas.getHeight(), xdpi, ydpi);
     }
 
     Xfermode xfm = fillPaint.getXfermode();
 
     try
     {
-      canvas.setMatrix(null); // GLRenderer works with pixels
+      canvas.setMatrix(pixelMatrix); // GLRenderer works with pixels
       fillPaint.setXfermode(xferModeSrcOver);
 
       PointF strokeOrigin = glRenderer.drawStroke(vInkPoints, temporaryPoints, transformValues, style, fillPaint, fullStroke, id);
@@ -525,20 +900,49 @@ public class Canvas implements ICanvas
     {
       // restore
       fillPaint.setXfermode(xfm);
-      canvas.setMatrix(transformMatrix);
+      canvas.setMatrix(canvasMatrix);
+    }
+  }
+
+  /**
+   * Draws the points of an extra brush stroke as a plain path, in the current transform.
+   */
+  private void drawPlainStroke(@NonNull InkPoints[] vInkPoints, @NonNull ExtraBrushStyle style)
+  {
+    plainStrokePath.rewind();
+    for (InkPoints inkPoints : vInkPoints)
+    {
+      if (inkPoints.x.length == 0)
+        continue;
+      plainStrokePath.moveTo(inkPoints.x[0], inkPoints.y[0]);
+      for (int i = 1; i < inkPoints.x.length; ++i)
+        plainStrokePath.lineTo(inkPoints.x[i], inkPoints.y[i]);
     }
+    plainStrokePaint.setColor(fillPaint.getColor());
+    plainStrokePaint.setStrokeWidth(style.strokeWidth);
+    Objects.requireNonNull(canvas).drawPath(plainStrokePath, plainStrokePaint);
   }
 
   @Override
   public void drawRectangle(float x, float y, float width, float height)
   {
+    if (skippedItemId != null)
+      return;
+
     Objects.requireNonNull(canvas);
+    if (recordedItemId != null)
+    {
+      floatRectCache.set(x, y, x + width, y + height);
+      addRecordedItemBounds(floatRectCache, strokePaint.getStrokeWidth());
+      recordedItemByteCount += 2 * ItemDrawingCache.DRAW_CALL_BYTE_COUNT;
+    }
     if (android.graphics.Color.alpha(fillPaint.getColor()) != 0)
     {
       canvas.drawRect(x, y, x + width, y + height, fillPaint);
     }
     if (android.graphics.Color.alpha(strokePaint.getColor()) != 0)
     {
+      updateDashPathEffect();
       canvas.drawRect(x, y, x + width, y + height, strokePaint);
     }
   }
@@ -546,17 +950,29 @@ public class Canvas implements ICanvas
   @Override
   public void drawLine(float x1, float y1, float x2, float y2)
   {
+    if (skippedItemId != null)
+      return;
+
     Objects.requireNonNull(canvas);
+    if (recordedItemId != null)
+    {
+      floatRectCache.set(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+      addRecordedItemBounds(floatRectCache, strokePaint.getStrokeWidth());
+      recordedItemByteCount += ItemDrawingCache.DRAW_CALL_BYTE_COUNT;
+    }
+    updateDashPathEffect();
     canvas.drawLine(x1, y1, x2, y2, strokePaint);
   }
 
   @Override
   public void drawObject(@NonNull String url, @NonNull String mimeType, float x, float y, float width, float height)
   {
-    if (imageLoader == null)
+    if (imageLoader == null || skippedItemId != null)
       return;
 
     Objects.requireNonNull(canvas);
+    // the image may not be ready yet: do not cache the item
+    recordedItemCacheable = false;
 
     RectF pixelSize = new RectF(x,y,x + width, y + height);
     transformMatrix.mapRect(pixelSize);
@@ -569,14 +985,28 @@ public class Canvas implements ICanvas
 
     synchronized (imageLoader)
     {
-      Bitmap image = imageLoader.getImage(url, mimeType, targetRect.width(), targetRect.height());
+      Bitmap image;
+      if (asynchronousImageLoading)
+      {
+        image = imageLoader.requestImage(url, mimeType, targetRect.width(), targetRect.height(), new RectF(x, y, x + width, y + height));
+        if (image == null)
+        {
+          // meanwhile, draw the image decoded for another zoom level, if any
+          pendingImages = true;
+          image = imageLoader.getNearestImage(url, targetRect.width(), targetRect.height());
+        }
+      }
+      else
+      {
+        image = imageLoader.getImage(url, mimeType, targetRect.width(), targetRect.height());
+      }
 
       if (image == null)
       {
         // image is not ready yet...
         if (android.graphics.Color.alpha(fillPaint.getColor()) != 0)
         {
-          canvas.drawRect(x, y, width, height, fillPaint);
+          canvas.drawRect(x, y, x + width, y + height, fillPaint);
         }
       }
       else
@@ -595,7 +1025,16 @@ public class Canvas implements ICanvas
   @Override
   public void drawText(@NonNull String label, float x, float y, float xmin, float ymin, float xmax, float ymax)
   {
+    if (skippedItemId != null)
+      return;
+
     Objects.requireNonNull(canvas);
+    if (recordedItemId != null)
+    {
+      floatRectCache.set(xmin, ymin, xmax, ymax);
+      addRecordedItemBounds(floatRectCache, 0);
+      recordedItemByteCount += ItemDrawingCache.DRAW_CALL_BYTE_COUNT + label.length() * ItemDrawingCache.GLYPH_BYTE_COUNT;
+    }
     // transform the insertion point so that it is not impacted by text scale
     pointsCache[0] = x;
     pointsCache[1] = y;
@@ -608,13 +1047,19 @@ public class Canvas implements ICanvas
     canvas.drawText(label, pointsCache[0], pointsCache[1], textPaint);
 
     // restore transform
-    canvas.setMatrix(transformMatrix);
+    canvas.setMatrix(canvasMatrix);
   }
 
   @Override
   public void blendOffscreen(int id, float srcX, float srcY, float srcWidth, float srcHeight,
                              float destX, float destY, float destWidth, float destHeight, @NonNull Color blendColor)
   {
+    if (skippedItemId != null)
+      return;
+
+    // the offscreen surface content is transient: do not cache the item
+    recordedItemCacheable = false;
+
     if (offlineSurfaceManager != null)
     {
       Bitmap bitmap = offlineSurfaceManager.getBitmap(id);
@@ -625,11 +1070,18 @@ public class Canvas implements ICanvas
         floatRectCache.set(destX, destY, destX + destWidth, destY + destHeight);
         simpleRectCache.set(Math.round(srcX), Math.round(srcY),
             Math.round(srcX + srcWidth), Math.round(srcY + srcHeight));
+        // ALPHA_8 surfaces are colorized with the paint color, while the other surfaces keep their
+        // colors and are only modulated by the paint alpha
         bitmapAlphaPaint.setColor(argb(blendColor));
 
         canvas.drawBitmap(bitmap,
             simpleRectCache, floatRectCache,
             bitmapAlphaPaint);
+
+        // an item being recorded is drawn into the record target afterwards
+        android.graphics.Canvas target = recordTarget != null ? recordTarget : canvas;
+        if (target.isHardwareAccelerated())
+          offlineSurfaceManager.markHardwareDrawn(id);
       }
     }
   }
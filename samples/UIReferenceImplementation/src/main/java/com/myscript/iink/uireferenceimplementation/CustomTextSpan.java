@@ -87,7 +87,7 @@ public class CustomTextSpan extends TextAppearanceSpan
 
       if (mTypeface != null)
       {
-        tf = Typeface.create(mTypeface, style);
+        tf = FontUtils.getTypeface(mTypeface, style);
       }
       else if (tf == null)
       {
@@ -95,7 +95,7 @@ public class CustomTextSpan extends TextAppearanceSpan
       }
       else
       {
-        tf = Typeface.create(tf, style);
+        tf = FontUtils.getTypeface(tf, style);
       }
 
       int fake = style & ~tf.getStyle();
@@ -0,0 +1,121 @@
+// Copyright @ MyScript. All rights reserved.
+
+package com.myscript.iink.uireferenceimplementation;
+
+import android.graphics.DashPathEffect;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Bounded cache of {@link DashPathEffect} instances keyed by dash pattern and offset, shared by all canvases.
+ */
+public final class DashPathEffectCache
+{
+  private static final int MAX_SIZE = 64;
+
+  private static final class Key
+  {
+    @NonNull
+    float[] intervals;
+    float phase;
+    int hash;
+
+    Key(@NonNull float[] intervals, float phase)
+    {
+      set(intervals, phase);
+    }
+
+    void set(@NonNull float[] intervals, float phase)
+    {
+      this.intervals = intervals;
+      this.phase = phase;
+      this.hash = 31 * Arrays.hashCode(intervals) + Float.floatToIntBits(phase);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (obj == this)
+        return true;
+      if (!(obj instanceof Key))
+        return false;
+      Key other = (Key) obj;
+      return hash == other.hash && Float.compare(phase, other.phase) == 0 && Arrays.equals(intervals, other.intervals);
+    }
+  }
+
+  private static final Map<Key, DashPathEffect> effects = new LinkedHashMap<Key, DashPathEffect>(MAX_SIZE, 0.75f, true)
+  {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, DashPathEffect> eldest)
+    {
+      return size() > MAX_SIZE;
+    }
+  };
+  // lookup key, reused to avoid an allocation on each lookup (guarded by the class lock)
+  private static final Key probe = new Key(new float[0], 0);
+  private static long hitCount = 0;
+  private static long missCount = 0;
+
+  private DashPathEffectCache()
+  {
+    // utility class
+  }
+
+  /**
+   * @param intervals the dash pattern, which is copied when a new effect is created.
+   * @param phase     the dash offset.
+   * @return the dash effect for the given pattern and offset.
+   */
+  @NonNull
+  public static synchronized DashPathEffect get(@NonNull float[] intervals, float phase)
+  {
+    probe.set(intervals, phase);
+    DashPathEffect effect = effects.get(probe);
+    if (effect != null)
+    {
+      ++hitCount;
+      return effect;
+    }
+
+    ++missCount;
+    float[] intervalsCopy = intervals.clone();
+    effect = new DashPathEffect(intervalsCopy, phase);
+    effects.put(new Key(intervalsCopy, phase), effect);
+    return effect;
+  }
+
+  public static synchronized long getHitCount()
+  {
+    return hitCount;
+  }
+
+  public static synchronized long getMissCount()
+  {
+    return missCount;
+  }
+
+  /**
+   * @return the ratio of lookups served from the cache, in [0, 1].
+   */
+  public static synchronized float getHitRate()
+  {
+    long lookupCount = hitCount + missCount;
+    return lookupCount == 0 ? 0 : (float) hitCount / lookupCount;
+  }
+
+  public static synchronized void clear()
+  {
+    effects.clear();
+  }
+}
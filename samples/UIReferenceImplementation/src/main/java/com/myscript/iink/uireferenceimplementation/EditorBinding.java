@@ -2,27 +2,118 @@
 
 package com.myscript.iink.uireferenceimplementation;
 
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.Typeface;
+import android.os.Process;
 import android.util.DisplayMetrics;
 
 import com.myscript.iink.Editor;
 import com.myscript.iink.Engine;
 import com.myscript.iink.Renderer;
+import com.myscript.iink.graphics.Style;
 
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 public final class EditorBinding
 {
+  private static final String IMAGE_CACHE_DIRECTORY = "iink-images";
+  private static final long IMAGE_CACHE_MAX_BYTES = 32L * 1024 * 1024;
+  private static final String GLYPH_METRICS_FILE = "iink-glyph-metrics";
+
+  /**
+   * Saves the glyph metrics of a font metrics provider when the application goes to background, as
+   * long as the provider is in use.
+   */
+  private static final class GlyphMetricsSaver implements ComponentCallbacks2
+  {
+    @NonNull
+    private final Context context;
+    @NonNull
+    private final WeakReference<FontMetricsProvider> fontMetricsProvider;
+    @NonNull
+    private final File file;
+    @NonNull
+    private final AtomicBoolean saving = new AtomicBoolean();
+
+    private GlyphMetricsSaver(@NonNull Context context, @NonNull FontMetricsProvider fontMetricsProvider, @NonNull File file)
+    {
+      this.context = context;
+      this.fontMetricsProvider = new WeakReference<>(fontMetricsProvider);
+      this.file = file;
+    }
+
+    static void register(@NonNull Context context, @NonNull FontMetricsProvider fontMetricsProvider, @NonNull File file)
+    {
+      Context applicationContext = context.getApplicationContext();
+      applicationContext.registerComponentCallbacks(new GlyphMetricsSaver(applicationContext, fontMetricsProvider, file));
+    }
+
+    @Override
+    public void onTrimMemory(int level)
+    {
+      if (level < TRIM_MEMORY_UI_HIDDEN)
+        return;
+      final FontMetricsProvider provider = fontMetricsProvider.get();
+      if (provider == null)
+      {
+        context.unregisterComponentCallbacks(this);
+        return;
+      }
+      if (!saving.compareAndSet(false, true))
+        return;
+
+      Thread thread = new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try
+        {
+          // editors share the file
+          synchronized (GlyphMetricsSaver.class)
+          {
+            provider.saveGlyphMetrics(file);
+          }
+        }
+        finally
+        {
+          saving.set(false);
+        }
+      }, "iink-glyph-metrics-save");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    @Override
+    public void onLowMemory()
+    {
+      // nothing to do
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig)
+    {
+      // nothing to do
+    }
+  }
+
   @Nullable
   private final Engine engine;
   @NonNull
   private final Map<String, Typeface> typefaces;
   @Nullable
   private InputController inputController;
+  @NonNull
+  private List<Style> glyphMetricsWarmUpStyles = Collections.emptyList();
 
   public EditorBinding(@Nullable Engine engine, @NonNull Map<String, Typeface> typefaces)
   {
@@ -30,13 +121,27 @@ public final class EditorBinding
     this.typefaces = typefaces;
   }
 
+  /**
+   * Sets the text styles whose common glyph metrics are computed when an editor is opened, in
+   * addition to the metrics saved by the previous sessions (default is none).
+   */
+  public void setGlyphMetricsWarmUpStyles(@NonNull List<Style> styles)
+  {
+    glyphMetricsWarmUpStyles = new ArrayList<>(styles);
+  }
+
   private void bindEditor(@NonNull EditorView editorView, @Nullable Editor editor)
   {
+    if (inputController != null)
+      inputController.close();
     editorView.setTypefaces(typefaces);
     editorView.setEditor(editor);
     if (editor != null)
     {
-      editorView.setImageLoader(new ImageLoader(editor));
+      ImageLoader imageLoader = new ImageLoader(editor);
+      imageLoader.setAsynchronousDecoding(true);
+      imageLoader.setDiskCache(new ImageDiskCache(new File(editorView.getContext().getCacheDir(), IMAGE_CACHE_DIRECTORY), IMAGE_CACHE_MAX_BYTES));
+      editorView.setImageLoader(imageLoader);
       inputController = new InputController(editorView.getContext(), editorView, editor);
     }
     else
@@ -60,7 +165,13 @@ public final class EditorBinding
       renderer.setViewOffset(0.0f, 0.0f);
       renderer.setViewScale(1.0f);
       editor = engine.createEditor(renderer, engine.createToolController());
-      editor.setFontMetricsProvider(new FontMetricsProvider(displayMetrics, typefaces));
+      Context context = editorView.getContext();
+      FontMetricsProvider fontMetricsProvider = new FontMetricsProvider(context, displayMetrics, typefaces);
+      // glyph metrics are restored from the previous sessions, and saved when the application goes to background
+      File glyphMetricsFile = new File(context.getCacheDir(), GLYPH_METRICS_FILE);
+      fontMetricsProvider.warmUpGlyphMetrics(glyphMetricsFile, glyphMetricsWarmUpStyles);
+      GlyphMetricsSaver.register(context, fontMetricsProvider, glyphMetricsFile);
+      editor.setFontMetricsProvider(fontMetricsProvider);
       bindEditor(editorView, editor);
     }
     return new EditorData(editor, renderer, inputController);
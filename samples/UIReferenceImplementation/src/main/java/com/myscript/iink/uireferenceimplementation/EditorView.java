@@ -5,6 +5,7 @@ package com.myscript.iink.uireferenceimplementation;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.util.AttributeSet;
 import android.view.View;
@@ -15,7 +16,9 @@ import com.myscript.iink.IRenderTarget;
 import com.myscript.iink.Renderer;
 import com.myscript.iink.graphics.ICanvas;
 import com.myscript.iink.graphics.Point;
+import com.myscript.iink.graphics.Transform;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -25,7 +28,7 @@ import java.util.Map;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-public class EditorView extends FrameLayout implements IRenderTarget, InputController.ViewListener
+public class EditorView extends FrameLayout implements IRenderTarget, InputController.ViewListener, ImageLoader.OnImageLoadedListener
 {
   private int viewWidth;
   private int viewHeight;
@@ -38,8 +41,9 @@ public class EditorView extends FrameLayout implements IRenderTarget, InputContr
   private ImageLoader imageLoader;
   @NonNull
   private final OfflineSurfaceManager offlineSurfaceManager;
-  @Nullable
-  private LayerView layerView;
+  // Render views, from bottom to top: each one renders the MODEL layer, the CAPTURE layer, or both
+  @NonNull
+  private final List<LayerView> layerViews = new ArrayList<>();
 
   private Map<String, Typeface> typefaceMap = new HashMap<>();
   @NonNull
@@ -59,6 +63,10 @@ public class EditorView extends FrameLayout implements IRenderTarget, InputContr
   {
     super(context, attrs, defStyleAttr);
     offlineSurfaceManager = new OfflineSurfaceManager();
+
+    CacheRegistry cacheRegistry = CacheRegistry.getInstance();
+    cacheRegistry.attach(context);
+    cacheRegistry.register(offlineSurfaceManager, CacheRegistry.PRIORITY_LOW);
   }
 
   @Override
@@ -72,7 +80,8 @@ public class EditorView extends FrameLayout implements IRenderTarget, InputContr
       View view = getChildAt(i);
       if (view instanceof LayerView)
       {
-        layerView = (LayerView) view;
+        LayerView layerView = (LayerView) view;
+        layerViews.add(layerView);
 
         layerView.setRenderTarget(this);
         if (editor != null)
@@ -101,7 +110,7 @@ public class EditorView extends FrameLayout implements IRenderTarget, InputContr
     if (editor != null)
     {
       renderer = editor.getRenderer();
-      if (layerView != null)
+      for (LayerView layerView : layerViews)
       {
         layerView.setEditor(editor);
       }
@@ -156,10 +165,22 @@ public class EditorView extends FrameLayout implements IRenderTarget, InputContr
 
   public void setImageLoader(ImageLoader imageLoader)
   {
+    if (this.imageLoader != null)
+    {
+      if (this.imageLoader.getOnImageLoadedListener() == this)
+        this.imageLoader.setOnImageLoadedListener(null);
+      CacheRegistry.getInstance().unregister(this.imageLoader);
+    }
+
     this.imageLoader = imageLoader;
+    if (imageLoader != null)
+    {
+      imageLoader.setOnImageLoadedListener(this);
+      CacheRegistry.getInstance().register(imageLoader, CacheRegistry.PRIORITY_NORMAL);
+    }
 
     // transfer image loader to render views
-    if (layerView != null)
+    for (LayerView layerView : layerViews)
     {
       layerView.setImageLoader(imageLoader);
     }
@@ -195,6 +216,17 @@ public class EditorView extends FrameLayout implements IRenderTarget, InputContr
     return typefaceMap;
   }
 
+  /**
+   * Enables the cache of model items draw calls in the render views (default is disabled).
+   */
+  public void setItemCacheEnabled(boolean itemCacheEnabled)
+  {
+    for (LayerView layerView : layerViews)
+    {
+      layerView.setItemCacheEnabled(itemCacheEnabled);
+    }
+  }
+
   @Override
   protected void onSizeChanged(int newWidth, int newHeight, int oldWidth, int oldHeight)
   {
@@ -222,9 +254,97 @@ public class EditorView extends FrameLayout implements IRenderTarget, InputContr
     if (width <= 0 || height <= 0)
       return;
 
-    if (layerView != null)
+    if (layers.contains(LayerType.CAPTURE))
+      LatencyTracker.getInstance().onCaptureInvalidated();
+
+    // only the views rendering the invalidated layers are redrawn
+    for (LayerView layerView : layerViews)
     {
-      layerView.update(renderer, x, y, width, height);
+      if (layerView.rendersAnyOf(layers))
+        layerView.update(renderer, x, y, width, height, layers);
+    }
+  }
+
+  @Override
+  public void onImageLoaded(@NonNull String url, @NonNull RectF bounds)
+  {
+    Renderer renderer = this.renderer;
+    if (renderer == null || renderer.isClosed())
+      return;
+
+    // the image area is mapped with the current view transform, which may have changed since the request
+    Transform transform = renderer.getViewTransform();
+    Point topLeft = transform.apply(bounds.left, bounds.top);
+    Point bottomRight = transform.apply(bounds.right, bounds.bottom);
+    int left = (int) Math.floor(Math.min(topLeft.x, bottomRight.x));
+    int top = (int) Math.floor(Math.min(topLeft.y, bottomRight.y));
+    int right = (int) Math.ceil(Math.max(topLeft.x, bottomRight.x));
+    int bottom = (int) Math.ceil(Math.max(topLeft.y, bottomRight.y));
+    invalidate(renderer, left, top, right - left, bottom - top, EnumSet.of(LayerType.MODEL));
+  }
+
+  /**
+   * Marks the start of a view transform change (scroll, zoom) on the calling thread: the
+   * invalidations it triggers reuse the rendered MODEL layer content instead of discarding it.
+   * Must be paired with {@link #endViewTransformChange()}.
+   */
+  public final void beginViewTransformChange()
+  {
+    for (LayerView layerView : layerViews)
+    {
+      layerView.beginViewTransformChange();
+    }
+  }
+
+  public final void endViewTransformChange()
+  {
+    for (LayerView layerView : layerViews)
+    {
+      layerView.endViewTransformChange();
+    }
+  }
+
+  /**
+   * Enables reduced quality rendering while the view moves (default is disabled).
+   *
+   * @see LayerView#setReducedQualityWhileMoving(boolean)
+   */
+  public void setReducedQualityWhileMoving(boolean reducedQualityWhileMoving)
+  {
+    for (LayerView layerView : layerViews)
+    {
+      layerView.setReducedQualityWhileMoving(reducedQualityWhileMoving);
+    }
+  }
+
+  /**
+   * Transforms the rendered layers without rendering them again, to preview a view transform
+   * change: a point of the last rendered frame is displayed at {@code scale * p + translation}.
+   * Reset with a scale of 1 and no translation once the renderer has the new transform.
+   */
+  public final void setViewTransformPreview(float scale, float translationX, float translationY)
+  {
+    for (LayerView layerView : layerViews)
+    {
+      layerView.setPivotX(0);
+      layerView.setPivotY(0);
+      layerView.setScaleX(scale);
+      layerView.setScaleY(scale);
+      layerView.setTranslationX(translationX);
+      layerView.setTranslationY(translationY);
+    }
+  }
+
+  /**
+   * Sets the predicted points of the stroke being captured, drawn over the CAPTURE layer.
+   *
+   * @see LayerView#setPredictedPoints(float[], int)
+   */
+  public final void setPredictedPoints(@NonNull float[] points, int count)
+  {
+    for (LayerView layerView : layerViews)
+    {
+      layerView.setPredictedPoints(points, count);
     }
   }
 
@@ -304,6 +424,10 @@ public class EditorView extends FrameLayout implements IRenderTarget, InputContr
     editor.clampViewOffset(bottomRightPx);
     float pageHeightPx = bottomRightPx.y - topLeftPx.y + viewHeightPx;
     float pageWidthPx = bottomRightPx.x - topLeftPx.x + viewWidthPx;
+    if (layerViews.isEmpty())
+      return;
+    // scrollbars are drawn by the top-most render view
+    LayerView layerView = layerViews.get(layerViews.size() - 1);
     layerView.setScrollbar(renderer, viewWidthPx, (int) pageWidthPx, (int) topLeftPx.x, viewHeightPx, (int) pageHeightPx, (int) topLeftPx.y);
   }
 }
@@ -3,6 +3,7 @@
 package com.myscript.iink.uireferenceimplementation;
 
 import android.annotation.SuppressLint;
+import android.content.Context;
 import android.content.res.ColorStateList;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -11,6 +12,7 @@ import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.os.Build;
+import android.os.Process;
 import android.text.Layout;
 import android.text.SpannableString;
 import android.text.Spanned;
@@ -19,11 +21,12 @@ import android.text.TextPaint;
 import android.text.style.MetricAffectingSpan;
 import android.text.style.TextAppearanceSpan;
 import android.util.DisplayMetrics;
+import android.util.Log;
 import android.util.TypedValue;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.collection.LruCache;
-import androidx.core.util.Pair;
 
 import com.myscript.iink.graphics.Rectangle;
 import com.myscript.iink.graphics.Style;
@@ -32,11 +35,43 @@ import com.myscript.iink.text.IFontMetricsProvider;
 import com.myscript.iink.text.Text;
 import com.myscript.iink.text.TextSpan;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Objects;
 import java.util.Map;
-
-public class FontMetricsProvider implements IFontMetricsProvider
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Font metrics provider based on Android text measurement.
+ * <p>
+ * Computed glyph metrics can be saved with {@link #saveGlyphMetrics(File)}, typically when the
+ * application goes to background, and restored on next launch with
+ * {@link #warmUpGlyphMetrics(File, boolean)}, so that the first text conversion or reflow after a
+ * cold start does not have to measure glyphs again.
+ */
+public class FontMetricsProvider implements IFontMetricsProvider, CacheRegistry.Cache
 {
+  private static final String TAG = "FontMetricsProvider";
+  // Glyph metrics file format
+  private static final int GLYPH_METRICS_FILE_MAGIC = 0x69474d43; // "iGMC"
+  private static final int GLYPH_METRICS_FILE_VERSION = 1;
+  // Code point ranges measured in advance by warmUpGlyphMetrics(): Basic Latin (including digits),
+  // Latin-1 Supplement and Latin Extended-A
+  private static final int[][] WARM_UP_CODE_POINT_RANGES = {{0x20, 0x7E}, {0xA0, 0xFF}, {0x100, 0x17F}};
+
   private static class FontKey
   {
     @NonNull
@@ -69,24 +104,128 @@ public class FontMetricsProvider implements IFontMetricsProvider
     }
   }
 
-  private interface IValueProvider<T>
+  // Text layout key: label and, for each span, its glyph range and font
+  private static class LayoutKey
+  {
+    @NonNull
+    final String label;
+    @NonNull
+    final int[] spanSignature;
+    final int hash;
+
+    LayoutKey(@NonNull String label, @NonNull int[] spanSignature)
+    {
+      this.label = label;
+      this.spanSignature = spanSignature;
+      this.hash = 31 * label.hashCode() + Arrays.hashCode(spanSignature);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (obj == this)
+        return true;
+      if (!(obj instanceof LayoutKey))
+        return false;
+      LayoutKey other = (LayoutKey)obj;
+      return hash == other.hash && label.equals(other.label) && Arrays.equals(spanSignature, other.spanSignature);
+    }
+  }
+
+  // Measuring objects, one set per thread so that the engine threads can measure text concurrently
+  private static final class MeasureContext
   {
-    T get();
+    final TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    final TextPaint paint_ = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    final Path charPath = new Path();
+    final RectF charBox = new RectF();
+    final Rect textBounds = new Rect();
   }
 
   private final DisplayMetrics displayMetrics;
-  private final TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
-  private final TextPaint paint_ = new TextPaint(Paint.ANTI_ALIAS_FLAG);
-  private final Path charPath = new Path();
-  private final RectF charBox = new RectF();
   private final Map<String, Typeface> typefaceMap;
 
-  private final LruCache<Pair<FontKey, String>, GlyphMetrics> glyphMetricsCache = new LruCache<>(1024);
+  private final ThreadLocal<MeasureContext> measureContext = new ThreadLocal<MeasureContext>()
+  {
+    @Override
+    protected MeasureContext initialValue()
+    {
+      return new MeasureContext();
+    }
+  };
+
+  // Fonts are interned into integer IDs, used in glyph metrics cache keys
+  private final ConcurrentHashMap<FontKey, Integer> fontIds = new ConcurrentHashMap<>();
+  private final Map<Integer, FontKey> fontKeys = new ConcurrentHashMap<>();
+  // Identifies the application fonts in saved glyph metrics (see setFontSetId())
+  @NonNull
+  private volatile String fontSetId = "";
+  private final AtomicInteger nextFontId = new AtomicInteger();
+  private final GlyphMetricsCache glyphMetricsCache = new GlyphMetricsCache();
+  // approximate memory used by a glyph metrics cache entry (key, metrics and table slot)
+  private static final int GLYPH_METRICS_ENTRY_BYTES = 96;
+  // Horizontal position of each glyph of recently measured texts (in pixels), so that texts measured
+  // again (reflow, zoom) do not need a new layout
+  private static final int LAYOUT_CACHE_SIZE = 256;
+  private final LruCache<LayoutKey, float[]> glyphPositionsCache = new LruCache<>(LAYOUT_CACHE_SIZE);
+  // approximate memory used by a glyph positions cache entry, in addition to its positions
+  private static final int LAYOUT_ENTRY_BYTES = 128;
 
   public FontMetricsProvider(DisplayMetrics displayMetrics, Map<String, Typeface> typefaceMap)
   {
     this.displayMetrics = displayMetrics;
     this.typefaceMap = typefaceMap;
+    CacheRegistry.getInstance().register(this, CacheRegistry.PRIORITY_HIGH);
+  }
+
+  /**
+   * Creates a provider identifying the application fonts by the installed application version,
+   * unless {@link #setFontSetId(String)} is called.
+   */
+  public FontMetricsProvider(@NonNull Context context, DisplayMetrics displayMetrics, Map<String, Typeface> typefaceMap)
+  {
+    this(displayMetrics, typefaceMap);
+    String versionKey = FontUtils.getApplicationVersionKey(context);
+    if (versionKey != null)
+      fontSetId = versionKey;
+  }
+
+  @Override
+  public long getByteCount()
+  {
+    long byteCount = (long) glyphMetricsCache.size() * GLYPH_METRICS_ENTRY_BYTES;
+    for (float[] glyphPositions : glyphPositionsCache.snapshot().values())
+      byteCount += LAYOUT_ENTRY_BYTES + 4L * glyphPositions.length;
+    return byteCount;
+  }
+
+  @Override
+  public void trim(float keepRatio)
+  {
+    glyphMetricsCache.trim(keepRatio);
+    glyphPositionsCache.trimToSize((int) (glyphPositionsCache.size() * keepRatio));
+  }
+
+  /**
+   * @return the number of glyph metrics served from the cache.
+   */
+  public long getGlyphMetricsHitCount()
+  {
+    return glyphMetricsCache.getHitCount();
+  }
+
+  /**
+   * @return the number of glyph metrics that had to be computed.
+   */
+  public long getGlyphMetricsMissCount()
+  {
+    return glyphMetricsCache.getMissCount();
   }
 
   private float y_mm2px(float mm)
@@ -104,12 +243,277 @@ public class FontMetricsProvider implements IFontMetricsProvider
     return 25.4f * (px / displayMetrics.ydpi);
   }
 
-  private void updatePaint(int[] fontSizes, Typeface[] typefaces, int spanIndex)
+  private void updatePaint(TextPaint paint, int[] fontSizes, Typeface[] typefaces, int spanIndex)
   {
     paint.setTypeface(typefaces[spanIndex]);
     paint.setTextSize(fontSizes[spanIndex]);
   }
 
+  private int getFontId(@NonNull FontKey fontKey)
+  {
+    Integer fontId = fontIds.get(fontKey);
+    if (fontId == null)
+    {
+      Integer newFontId = nextFontId.getAndIncrement();
+      fontId = fontIds.putIfAbsent(fontKey, newFontId);
+      if (fontId == null)
+      {
+        fontId = newFontId;
+        fontKeys.put(fontId, fontKey);
+      }
+    }
+    return fontId;
+  }
+
+  @Nullable
+  private Typeface resolveTypeface(@NonNull String fontFamily, int typefaceStyle)
+  {
+    Typeface ref = typefaceMap.get(fontFamily);
+    if (ref == null)
+      return FontUtils.getTypeface(fontFamily, typefaceStyle);
+    return FontUtils.getTypeface(ref, typefaceStyle);
+  }
+
+  /**
+   * Sets an identifier of the application font files (such as a hash of their content, or the
+   * application version when fonts are bundled), so that saved glyph metrics are discarded when
+   * fonts change. System fonts are identified by the build fingerprint.
+   * <p>
+   * Without an identifier, glyph metrics are only saved and loaded when there are no application fonts.
+   */
+  public void setFontSetId(@NonNull String fontSetId)
+  {
+    this.fontSetId = fontSetId;
+  }
+
+  /**
+   * @return the fingerprint of the fonts, {@code null} if the application fonts cannot be identified.
+   */
+  @Nullable
+  private String getFontSetFingerprint()
+  {
+    String fontSetId = this.fontSetId;
+    if (fontSetId.isEmpty() && !typefaceMap.isEmpty())
+      return null;
+    StringBuilder fingerprint = new StringBuilder(Build.FINGERPRINT).append('|').append(fontSetId);
+    for (String fontFamily : new TreeSet<>(typefaceMap.keySet()))
+      fingerprint.append('|').append(fontFamily);
+    return fingerprint.toString();
+  }
+
+  /**
+   * Saves the computed metrics of single code point glyphs.
+   *
+   * @return {@code true} if the metrics were saved.
+   */
+  public boolean saveGlyphMetrics(@NonNull File file)
+  {
+    String fingerprint = getFontSetFingerprint();
+    if (fingerprint == null)
+    {
+      Log.w(TAG, "Glyph metrics not saved: no font set id");
+      return false;
+    }
+
+    // snapshot fonts and metrics: fonts are written by index
+    final List<FontKey> fonts = new ArrayList<>();
+    final Map<Integer, Integer> fontIndexes = new HashMap<>();
+    final List<int[]> keys = new ArrayList<>();
+    final List<GlyphMetrics> metrics = new ArrayList<>();
+    glyphMetricsCache.forEach((key, glyphMetrics) -> {
+      int fontId = GlyphMetricsCache.getFontId(key);
+      FontKey fontKey = fontKeys.get(fontId);
+      if (fontKey == null)
+        return;
+      Integer fontIndex = fontIndexes.get(fontId);
+      if (fontIndex == null)
+      {
+        fontIndex = fonts.size();
+        fonts.add(fontKey);
+        fontIndexes.put(fontId, fontIndex);
+      }
+      keys.add(new int[]{fontIndex, GlyphMetricsCache.getCodePoint(key)});
+      metrics.add(glyphMetrics);
+    });
+
+    File tempFile = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile))))
+    {
+      out.writeInt(GLYPH_METRICS_FILE_MAGIC);
+      out.writeInt(GLYPH_METRICS_FILE_VERSION);
+      out.writeFloat(displayMetrics.xdpi);
+      out.writeFloat(displayMetrics.ydpi);
+      out.writeUTF(fingerprint);
+
+      out.writeInt(fonts.size());
+      for (FontKey fontKey : fonts)
+      {
+        out.writeUTF(fontKey.family);
+        out.writeInt(fontKey.style);
+        out.writeInt(fontKey.size);
+      }
+
+      out.writeInt(keys.size());
+      for (int i = 0; i < keys.size(); ++i)
+      {
+        GlyphMetrics m = metrics.get(i);
+        out.writeInt(keys.get(i)[0]);
+        out.writeInt(keys.get(i)[1]);
+        out.writeFloat(m.boundingBox.x);
+        out.writeFloat(m.boundingBox.y);
+        out.writeFloat(m.boundingBox.width);
+        out.writeFloat(m.boundingBox.height);
+        out.writeFloat(m.leftSideBearing);
+        out.writeFloat(m.rightSideBearing);
+      }
+    }
+    catch (IOException e)
+    {
+      Log.w(TAG, "Unable to save glyph metrics", e);
+      if (tempFile.exists() && !tempFile.delete())
+        Log.w(TAG, "Unable to delete temporary glyph metrics file");
+      return false;
+    }
+
+    if (!tempFile.renameTo(file))
+    {
+      Log.w(TAG, "Unable to save glyph metrics");
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Loads glyph metrics saved by {@link #saveGlyphMetrics(File)}. Metrics saved with other display
+   * metrics or another font set are ignored, as well as all metrics when application fonts are not
+   * identified (see {@link #setFontSetId(String)}).
+   *
+   * @return {@code true} if the metrics were loaded.
+   */
+  public boolean loadGlyphMetrics(@NonNull File file)
+  {
+    String fingerprint = getFontSetFingerprint();
+    if (fingerprint == null || !file.isFile())
+      return false;
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+    {
+      if (in.readInt() != GLYPH_METRICS_FILE_MAGIC || in.readInt() != GLYPH_METRICS_FILE_VERSION)
+        return false;
+      if (in.readFloat() != displayMetrics.xdpi || in.readFloat() != displayMetrics.ydpi)
+        return false;
+      if (!in.readUTF().equals(fingerprint))
+        return false;
+
+      int fontCount = in.readInt();
+      int[] fontIdsByIndex = new int[fontCount];
+      for (int i = 0; i < fontCount; ++i)
+      {
+        String family = in.readUTF();
+        int style = in.readInt();
+        int size = in.readInt();
+        fontIdsByIndex[i] = getFontId(new FontKey(family, style, size));
+      }
+
+      int entryCount = in.readInt();
+      for (int i = 0; i < entryCount; ++i)
+      {
+        int fontIndex = in.readInt();
+        int codePoint = in.readInt();
+        float x = in.readFloat();
+        float y = in.readFloat();
+        float width = in.readFloat();
+        float height = in.readFloat();
+        float leftSideBearing = in.readFloat();
+        float rightSideBearing = in.readFloat();
+        if (fontIndex < 0 || fontIndex >= fontCount)
+          return false;
+
+        long key = GlyphMetricsCache.getKey(fontIdsByIndex[fontIndex], codePoint);
+        if (!glyphMetricsCache.contains(key))
+          glyphMetricsCache.put(key, new GlyphMetrics(x, y, width, height, leftSideBearing, rightSideBearing));
+      }
+      return true;
+    }
+    catch (IOException e)
+    {
+      Log.w(TAG, "Unable to load glyph metrics", e);
+      return false;
+    }
+  }
+
+  /**
+   * Loads saved glyph metrics on a background thread and, optionally, computes the metrics of the
+   * common Latin glyphs (including digits) for the fonts used so far.
+   *
+   * @param file                the saved glyph metrics, {@code null} if none.
+   * @param computeCommonGlyphs whether to compute the metrics of common glyphs.
+   */
+  public void warmUpGlyphMetrics(@Nullable final File file, final boolean computeCommonGlyphs)
+  {
+    warmUpGlyphMetrics(file, computeCommonGlyphs, Collections.<Style>emptyList());
+  }
+
+  /**
+   * Loads saved glyph metrics on a background thread, then computes the metrics of the common Latin
+   * glyphs (including digits) for the given text styles and the fonts used so far, so that they are
+   * available on a cold start without saved metrics.
+   *
+   * @param file   the saved glyph metrics, {@code null} if none.
+   * @param styles the text styles to compute the common glyphs of (font family, size, style and weight).
+   */
+  public void warmUpGlyphMetrics(@Nullable final File file, @NonNull List<Style> styles)
+  {
+    warmUpGlyphMetrics(file, true, new ArrayList<>(styles));
+  }
+
+  private void warmUpGlyphMetrics(@Nullable final File file, final boolean computeCommonGlyphs, @NonNull final List<Style> styles)
+  {
+    Thread thread = new Thread(() -> {
+      Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+      if (file != null)
+        loadGlyphMetrics(file);
+      if (computeCommonGlyphs)
+        computeCommonGlyphMetrics(styles);
+    }, "iink-glyph-metrics-warm-up");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void computeCommonGlyphMetrics(@NonNull List<Style> styles)
+  {
+    // register the fonts of the styles, as getGlyphMetrics() does
+    for (Style style : styles)
+    {
+      Typeface typeface = FontUtils.getTypeface(typefaceMap, style.getFontFamily(), style.getFontStyle(), style.getFontVariant(), style.getFontWeight());
+      int typefaceStyle = typeface != null ? typeface.getStyle() : FontUtils.getTypefaceStyle(style);
+      int fontSize = Math.max(Math.round(y_mm2px(style.getFontSize())), 1);
+      getFontId(new FontKey(style.getFontFamily(), typefaceStyle, fontSize));
+    }
+
+    MeasureContext context = measureContext.get();
+    for (Map.Entry<Integer, FontKey> font : fontKeys.entrySet())
+    {
+      int fontId = font.getKey();
+      FontKey fontKey = font.getValue();
+      Typeface typeface = resolveTypeface(fontKey.family, fontKey.style);
+      context.paint.setTypeface(typeface);
+      context.paint.setTextSize(fontKey.size);
+
+      for (int[] range : WARM_UP_CODE_POINT_RANGES)
+      {
+        for (int codePoint = range[0]; codePoint <= range[1]; ++codePoint)
+        {
+          long key = GlyphMetricsCache.getKey(fontId, codePoint);
+          if (glyphMetricsCache.contains(key))
+            continue;
+          String glyph = new String(Character.toChars(codePoint));
+          glyphMetricsCache.put(key, computeGlyphMetrics(context, glyph, 0, glyph.length()));
+        }
+      }
+    }
+  }
+
   @Override
   public Rectangle[] getCharacterBoundingBoxes(@NonNull Text text, TextSpan[] spans)
   {
@@ -132,25 +536,77 @@ public class FontMetricsProvider implements IFontMetricsProvider
     return true;
   }
 
-  private GlyphMetrics getGlyphMetrics(FontKey fontKey, String glyph, IValueProvider<GlyphMetrics> valueProvider)
+  private GlyphMetrics getGlyphMetrics(MeasureContext context, int fontId, String label, int start, int end)
   {
-    Pair<FontKey, String> key = new Pair<>(fontKey, glyph);
-    synchronized (glyphMetricsCache)
+    GlyphMetrics metrics;
+    int codePoint = end > start ? label.codePointAt(start) : 0;
+    if (end > start && Character.charCount(codePoint) == end - start)
     {
-      GlyphMetrics metrics = glyphMetricsCache.get(key);
+      // single code point glyph: lock-free lookup
+      long key = GlyphMetricsCache.getKey(fontId, codePoint);
+      metrics = glyphMetricsCache.get(key);
       if (metrics == null)
       {
-        metrics = valueProvider.get();
+        metrics = computeGlyphMetrics(context, label, start, end);
         glyphMetricsCache.put(key, metrics);
       }
-      return metrics;
     }
+    else
+    {
+      String glyph = label.substring(start, end);
+      metrics = glyphMetricsCache.get(fontId, glyph);
+      if (metrics == null)
+      {
+        metrics = computeGlyphMetrics(context, label, start, end);
+        glyphMetricsCache.put(fontId, glyph, metrics);
+      }
+    }
+    return metrics;
+  }
+
+  private GlyphMetrics computeGlyphMetrics(MeasureContext context, String label, int start, int end)
+  {
+    TextPaint paint = context.paint;
+    RectF charBox = context.charBox;
+    paint.getTextPath(label, start, end, 0, 0, context.charPath);
+    context.charPath.computeBounds(charBox, true);
+
+    // some glyphs paths may not be available (like for emojis)
+    // in that case we use simple text bounds, which are less precise but correct
+    if (charBox.isEmpty() && !label.equals(" "))
+    {
+      Rect box = context.textBounds;
+      paint.getTextBounds(label, start, end, box);
+      charBox.left = box.left;
+      charBox.top = box.top;
+      charBox.right = box.right;
+      charBox.bottom = box.bottom;
+    }
+
+    float x = x_px2mm(charBox.left);
+    float y = y_px2mm(charBox.top);
+    float width = x_px2mm(charBox.width());
+    float height = y_px2mm(charBox.height());
+
+    float leftSideBearing = -x;
+    float rightSideBearing;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
+    {
+      float advance = paint.getRunAdvance(label, start, end, start, end, false, end);
+      rightSideBearing = x_px2mm(advance - charBox.right);
+    }
+    else
+    {
+      rightSideBearing = 0; // expect degraded reflow of typeset text
+    }
+
+    return new GlyphMetrics(x, y, width, height, leftSideBearing, rightSideBearing);
   }
 
   @SuppressLint("NewApi")
   @SuppressWarnings("deprecation")
   @NonNull
-  private StaticLayout getLayout(@NonNull SpannableString string)
+  private StaticLayout getLayout(@NonNull SpannableString string, @NonNull TextPaint paint_)
   {
     if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M)
     {
@@ -163,18 +619,17 @@ public class FontMetricsProvider implements IFontMetricsProvider
   }
 
   @Override
-  public synchronized GlyphMetrics[] getGlyphMetrics(Text text, TextSpan[] spans)
+  public GlyphMetrics[] getGlyphMetrics(Text text, TextSpan[] spans)
   {
+    final MeasureContext context = measureContext.get();
     final String label = text.getLabel();
 
-    // Create spannable string that represent text with spans (ignoring color)
-    final SpannableString string = new SpannableString(label);
-
-    ColorStateList fontColor = ColorStateList.valueOf(Color.BLACK);
-    ColorStateList fontLinkColor = null;
-
     int[] fontSizes = new int[spans.length];
+    int[] typefaceStyles = new int[spans.length];
     Typeface[] typefaces = new Typeface[spans.length];
+    int[] fontIds = new int[spans.length];
+    // glyph range, font and typeface style of each span
+    int[] spanSignature = new int[4 * spans.length];
 
     for (int i = 0; i < spans.length; i++)
     {
@@ -185,88 +640,96 @@ public class FontMetricsProvider implements IFontMetricsProvider
       int typefaceStyle = FontUtils.getTypefaceStyle(style);
       int fontSize = Math.round(y_mm2px(style.getFontSize()));
       fontSize = Math.max(fontSize, 1);
-      int start = text.getGlyphBeginAt(spans[i].beginPosition);
-      int end = text.getGlyphEndAt(spans[i].endPosition - 1);
-
-      MetricAffectingSpan span;
       Typeface typeface = FontUtils.getTypeface(typefaceMap, fontFamily, style.getFontStyle(), style.getFontVariant(), style.getFontWeight());
-      if (typeface == null)
-        span = new TextAppearanceSpan(fontFamily, typefaceStyle, fontSize, fontColor, fontLinkColor);
-      else
-        span = new CustomTextSpan(typeface, typefaceStyle, fontSize, fontColor, fontLinkColor);
-
-      string.setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
 
       fontSizes[i] = fontSize;
+      typefaceStyles[i] = typefaceStyle;
       typefaces[i] = typeface;
+      fontIds[i] = getFontId(new FontKey(fontFamily, typeface != null ? typeface.getStyle() : typefaceStyle, fontSize));
+
+      spanSignature[4 * i] = spans[i].beginPosition;
+      spanSignature[4 * i + 1] = spans[i].endPosition;
+      spanSignature[4 * i + 2] = fontIds[i];
+      spanSignature[4 * i + 3] = typefaceStyle;
     }
 
     int glyphCount = text.getGlyphCount();
+    LayoutKey layoutKey = new LayoutKey(label, spanSignature);
+    float[] glyphPositions = glyphPositionsCache.get(layoutKey);
+    if (glyphPositions == null || glyphPositions.length != glyphCount)
+    {
+      glyphPositions = layoutGlyphs(context, text, spans, fontSizes, typefaceStyles, typefaces);
+      glyphPositionsCache.put(layoutKey, glyphPositions);
+    }
+
     GlyphMetrics[] charBoxes = new GlyphMetrics[glyphCount];
 
-    // Layout text
     int spanEnd = -1;
     int spanIndex = -1;
-    FontKey fontKey = null;
-
-    final StaticLayout layout = getLayout(string);
-    if (layout.getLineCount() != 1)
-    {
-      throw new RuntimeException();
-    }
+    int fontId = -1;
 
     for (int i = 0; i < glyphCount; ++i)
     {
       if (i >= spanEnd)
       {
         ++spanIndex;
-        fontKey = new FontKey(spans[spanIndex].style.getFontFamily(), typefaces[spanIndex].getStyle(), fontSizes[spanIndex]);
+        fontId = fontIds[spanIndex];
         spanEnd = spans[spanIndex].endPosition;
-        updatePaint(fontSizes, typefaces, spanIndex);
+        updatePaint(context.paint, fontSizes, typefaces, spanIndex);
       }
 
       final int start = text.getGlyphBeginAt(i);
       final int end = text.getGlyphEndAt(i);
-      String glyph = label.substring(start, end);
-      GlyphMetrics m = getGlyphMetrics(fontKey, glyph, () -> {
-        paint.getTextPath(label, start, end, 0, 0, charPath);
-        charPath.computeBounds(charBox, true);
+      GlyphMetrics m = getGlyphMetrics(context, fontId, label, start, end);
 
-        // some glyphs paths may not be available (like for emojis)
-        // in that case we use simple text bounds, which are less precise but correct
-        if (charBox.isEmpty() && !label.equals(" "))
-        {
-          Rect box = new Rect();
-          paint.getTextBounds(label, start, end, box);
-          charBox.left = box.left;
-          charBox.top = box.top;
-          charBox.right = box.right;
-          charBox.bottom = box.bottom;
-        }
+      charBoxes[i] = new GlyphMetrics(x_px2mm(glyphPositions[i]) + m.boundingBox.x, m.boundingBox.y, m.boundingBox.width, m.boundingBox.height, m.leftSideBearing, m.rightSideBearing);
+    }
 
-        float x = x_px2mm(charBox.left);
-        float y = y_px2mm(charBox.top);
-        float width = x_px2mm(charBox.width());
-        float height = y_px2mm(charBox.height());
+    return charBoxes;
+  }
 
-        float leftSideBearing = -x;
-        float rightSideBearing;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
-        {
-          float advance = paint.getRunAdvance(label, start, end, start, end, false, end);
-          rightSideBearing = x_px2mm(advance - charBox.right);
-        }
-        else
-        {
-          rightSideBearing = 0; // expect degraded reflow of typeset text
-        }
+  /**
+   * Lays out a text with its spans.
+   *
+   * @return the horizontal position of each glyph, in pixels.
+   */
+  @NonNull
+  private float[] layoutGlyphs(MeasureContext context, Text text, TextSpan[] spans, int[] fontSizes, int[] typefaceStyles, Typeface[] typefaces)
+  {
+    final String label = text.getLabel();
 
-        return new GlyphMetrics(x, y, width, height, leftSideBearing, rightSideBearing);
-      });
+    // Create spannable string that represent text with spans (ignoring color)
+    final SpannableString string = new SpannableString(label);
+
+    ColorStateList fontColor = ColorStateList.valueOf(Color.BLACK);
+    ColorStateList fontLinkColor = null;
 
-      charBoxes[i] = new GlyphMetrics(x_px2mm(layout.getPrimaryHorizontal(start)) + m.boundingBox.x, m.boundingBox.y, m.boundingBox.width, m.boundingBox.height, m.leftSideBearing, m.rightSideBearing);
+    for (int i = 0; i < spans.length; i++)
+    {
+      String fontFamily = spans[i].style.getFontFamily();
+      int start = text.getGlyphBeginAt(spans[i].beginPosition);
+      int end = text.getGlyphEndAt(spans[i].endPosition - 1);
+
+      MetricAffectingSpan span;
+      if (typefaces[i] == null)
+        span = new TextAppearanceSpan(fontFamily, typefaceStyles[i], fontSizes[i], fontColor, fontLinkColor);
+      else
+        span = new CustomTextSpan(typefaces[i], typefaceStyles[i], fontSizes[i], fontColor, fontLinkColor);
+
+      string.setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
     }
 
-    return charBoxes;
+    // Layout text
+    final StaticLayout layout = getLayout(string, context.paint_);
+    if (layout.getLineCount() != 1)
+    {
+      throw new RuntimeException();
+    }
+
+    int glyphCount = text.getGlyphCount();
+    float[] glyphPositions = new float[glyphCount];
+    for (int i = 0; i < glyphCount; ++i)
+      glyphPositions[i] = layout.getPrimaryHorizontal(text.getGlyphBeginAt(i));
+    return glyphPositions;
   }
 }
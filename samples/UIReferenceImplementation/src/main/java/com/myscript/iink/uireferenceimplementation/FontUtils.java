@@ -2,26 +2,174 @@
 
 package com.myscript.iink.uireferenceimplementation;
 
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
 import android.content.res.AssetManager;
 import android.graphics.Typeface;
+import android.os.Build;
+import android.os.Process;
 import android.util.Log;
 
 import com.myscript.iink.graphics.Style;
 import com.myscript.util.TTFAnalyzer;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 public final class FontUtils
 {
+  // Resolved typefaces, indexed by typeface style (NORMAL, BOLD, ITALIC, BOLD_ITALIC)
+  // (font style, variant and weight all resolve to one of these styles)
+  private static final int TYPEFACE_STYLE_COUNT = 4;
+  private static final ConcurrentHashMap<String, AtomicReferenceArray<Typeface>> familyTypefaces = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<Typeface, AtomicReferenceArray<Typeface>> derivedTypefaces = new ConcurrentHashMap<>();
+
+  private static final String FONT_INDEX_FILE_PREFIX = "iink-font-index-";
+
   private FontUtils()
   {
     // utility class
   }
 
+  /**
+   * Typeface map whose typefaces are created on first access, or by background threads.
+   * Family names are known upfront, so querying them does not create any typeface.
+   * Typefaces may be added, as with the map returned by {@link #loadFontsFromAssets(AssetManager, String)}.
+   */
+  private static final class LazyTypefaceMap extends AbstractMap<String, Typeface>
+  {
+    @NonNull
+    private final Map<String, FutureTask<Typeface>> typefaces;
+
+    LazyTypefaceMap(@NonNull Map<String, FutureTask<Typeface>> typefaces)
+    {
+      this.typefaces = typefaces;
+    }
+
+    @Override
+    public Typeface get(Object key)
+    {
+      FutureTask<Typeface> task = typefaces.get(key);
+      if (task == null)
+        return null;
+      // creates the typeface on this thread, unless a background thread already did (or is doing) it
+      task.run();
+      try
+      {
+        return task.get();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        return null;
+      }
+      catch (ExecutionException e)
+      {
+        Log.e("FontUtils", "Failed to create typeface " + key, e.getCause());
+        return null;
+      }
+    }
+
+    @Override
+    public Typeface put(String key, Typeface value)
+    {
+      Typeface previousValue = typefaces.containsKey(key) ? get(key) : null;
+      FutureTask<Typeface> task = new FutureTask<>(() -> value);
+      task.run();
+      typefaces.put(key, task);
+      return previousValue;
+    }
+
+    @Override
+    public Typeface remove(Object key)
+    {
+      Typeface previousValue = typefaces.containsKey(key) ? get(key) : null;
+      typefaces.remove(key);
+      return previousValue;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+      return typefaces.containsKey(key);
+    }
+
+    @Override
+    public int size()
+    {
+      return typefaces.size();
+    }
+
+    @NonNull
+    @Override
+    public Set<String> keySet()
+    {
+      return Collections.unmodifiableSet(typefaces.keySet());
+    }
+
+    @NonNull
+    @Override
+    public Set<Entry<String, Typeface>> entrySet()
+    {
+      return new AbstractSet<Entry<String, Typeface>>()
+      {
+        @NonNull
+        @Override
+        public Iterator<Entry<String, Typeface>> iterator()
+        {
+          final Iterator<String> families = typefaces.keySet().iterator();
+          return new Iterator<Entry<String, Typeface>>()
+          {
+            @Override
+            public boolean hasNext()
+            {
+              return families.hasNext();
+            }
+
+            @Override
+            public Entry<String, Typeface> next()
+            {
+              String family = families.next();
+              return new SimpleImmutableEntry<>(family, get(family));
+            }
+          };
+        }
+
+        @Override
+        public int size()
+        {
+          return typefaces.size();
+        }
+      };
+    }
+  }
+
   public static Map<String, Typeface> loadFontsFromAssets(AssetManager assetManager)
   {
     return loadFontsFromAssets(assetManager, "fonts");
@@ -55,6 +203,169 @@ public final class FontUtils
     return typefaceMap;
   }
 
+  public static Map<String, Typeface> loadFontsFromAssets(@NonNull Context context)
+  {
+    return loadFontsFromAssets(context, "fonts");
+  }
+
+  /**
+   * Loads the fonts of an assets directory, like {@link #loadFontsFromAssets(AssetManager, String)},
+   * with a lower startup cost:
+   * <ul>
+   *   <li>the family names of the font files are read once per application version, then saved in
+   *   an index file,</li>
+   *   <li>typefaces are created on background threads, and a typeface requested before it is ready
+   *   is created on the calling thread.</li>
+   * </ul>
+   *
+   * @return the typefaces by family name, or {@code null} if the fonts could not be listed.
+   */
+  @Nullable
+  public static Map<String, Typeface> loadFontsFromAssets(@NonNull Context context, @NonNull String assetsDir)
+  {
+    final AssetManager assetManager = context.getAssets();
+    File indexFile = new File(context.getCacheDir(), FONT_INDEX_FILE_PREFIX + Integer.toHexString(assetsDir.hashCode()));
+    String indexKey = getFontIndexKey(context, assetsDir);
+
+    Map<String, String> fontPaths = indexKey != null ? readFontIndex(indexFile, indexKey) : null;
+    if (fontPaths == null)
+    {
+      fontPaths = new LinkedHashMap<>();
+      try
+      {
+        String[] files = assetManager.list(assetsDir);
+        for (String filename : files)
+        {
+          if (!filename.endsWith(".ttf") && !filename.endsWith(".otf"))
+            continue;
+
+          String fontPath = assetsDir + File.separatorChar + filename;
+          String fontFamily = FontUtils.getFontFamily(assetManager, fontPath);
+          if (fontFamily != null)
+            fontPaths.put(fontFamily, fontPath);
+        }
+      }
+      catch (IOException e)
+      {
+        Log.e("FontUtils", "Failed to list fonts from assets", e);
+        return null;
+      }
+      if (indexKey != null)
+        writeFontIndex(indexFile, indexKey, fontPaths);
+    }
+
+    Map<String, FutureTask<Typeface>> typefaces = new ConcurrentHashMap<>();
+    for (Map.Entry<String, String> font : fontPaths.entrySet())
+    {
+      final String fontPath = font.getValue();
+      typefaces.put(font.getKey(), new FutureTask<>(() -> Typeface.createFromAsset(assetManager, fontPath)));
+    }
+
+    if (!typefaces.isEmpty())
+    {
+      int threadCount = Math.max(1, Math.min(typefaces.size(), Runtime.getRuntime().availableProcessors() - 1));
+      ExecutorService executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+        Thread thread = new Thread(() -> {
+          Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+          runnable.run();
+        }, "iink-font-loader");
+        thread.setDaemon(true);
+        return thread;
+      });
+      for (FutureTask<Typeface> task : typefaces.values())
+        executor.execute(task);
+      executor.shutdown();
+    }
+
+    return new LazyTypefaceMap(typefaces);
+  }
+
+  /**
+   * @return the key of the font index, which changes when the application is updated, or
+   * {@code null} if the application version is not available.
+   */
+  @Nullable
+  private static String getFontIndexKey(@NonNull Context context, @NonNull String assetsDir)
+  {
+    String versionKey = getApplicationVersionKey(context);
+    return versionKey != null ? versionKey + ":" + assetsDir : null;
+  }
+
+  /**
+   * @return a key of the installed application, which changes when the application (and thus its
+   * bundled fonts) is updated, or {@code null} if the application version is not available.
+   */
+  @SuppressWarnings("deprecation")
+  @Nullable
+  static String getApplicationVersionKey(@NonNull Context context)
+  {
+    try
+    {
+      PackageInfo packageInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+      long versionCode = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ? packageInfo.getLongVersionCode() : packageInfo.versionCode;
+      return versionCode + ":" + packageInfo.lastUpdateTime;
+    }
+    catch (PackageManager.NameNotFoundException e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * @return the font paths by family name, or {@code null} if the index is missing or outdated.
+   */
+  @Nullable
+  private static Map<String, String> readFontIndex(@NonNull File indexFile, @NonNull String indexKey)
+  {
+    if (!indexFile.isFile())
+      return null;
+
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8)))
+    {
+      if (!indexKey.equals(reader.readLine()))
+        return null;
+
+      Map<String, String> fontPaths = new LinkedHashMap<>();
+      String line;
+      while ((line = reader.readLine()) != null)
+      {
+        int separator = line.indexOf('\t');
+        if (separator < 0)
+          return null;
+        fontPaths.put(line.substring(0, separator), line.substring(separator + 1));
+      }
+      return fontPaths;
+    }
+    catch (IOException e)
+    {
+      return null;
+    }
+  }
+
+  private static void writeFontIndex(@NonNull File indexFile, @NonNull String indexKey, @NonNull Map<String, String> fontPaths)
+  {
+    File tempFile = new File(indexFile.getPath() + ".tmp");
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))
+    {
+      writer.write(indexKey);
+      writer.write('\n');
+      for (Map.Entry<String, String> font : fontPaths.entrySet())
+      {
+        writer.write(font.getKey());
+        writer.write('\t');
+        writer.write(font.getValue());
+        writer.write('\n');
+      }
+    }
+    catch (IOException e)
+    {
+      Log.w("FontUtils", "Failed to write font index", e);
+      return;
+    }
+    if (!tempFile.renameTo(indexFile))
+      Log.w("FontUtils", "Failed to write font index");
+  }
+
   public static int getTypefaceStyle(String fontStyle, String fontVariant, int fontWeight)
   {
     // Looking at Typeface documentation we see that NORMAL = 0, BOLD = 1, ITALIC = 2, and
@@ -74,7 +385,57 @@ public final class FontUtils
 
   public static Typeface getTypeface(String fontFamily, int typefaceStyle)
   {
-    return Typeface.create(fontFamily, typefaceStyle);
+    if (fontFamily == null || typefaceStyle < 0 || typefaceStyle >= TYPEFACE_STYLE_COUNT)
+      return Typeface.create(fontFamily, typefaceStyle);
+
+    AtomicReferenceArray<Typeface> typefaces = familyTypefaces.get(fontFamily);
+    if (typefaces == null)
+    {
+      familyTypefaces.putIfAbsent(fontFamily, new AtomicReferenceArray<>(TYPEFACE_STYLE_COUNT));
+      typefaces = familyTypefaces.get(fontFamily);
+    }
+
+    Typeface typeface = typefaces.get(typefaceStyle);
+    if (typeface == null)
+    {
+      typeface = Typeface.create(fontFamily, typefaceStyle);
+      typefaces.set(typefaceStyle, typeface);
+    }
+    return typeface;
+  }
+
+  /**
+   * Returns the given typeface in the given style, resolved once and then shared by all callers
+   * (canvases, font metrics provider and text spans).
+   */
+  public static Typeface getTypeface(Typeface family, int typefaceStyle)
+  {
+    if (family == null || typefaceStyle < 0 || typefaceStyle >= TYPEFACE_STYLE_COUNT)
+      return Typeface.create(family, typefaceStyle);
+
+    AtomicReferenceArray<Typeface> typefaces = derivedTypefaces.get(family);
+    if (typefaces == null)
+    {
+      derivedTypefaces.putIfAbsent(family, new AtomicReferenceArray<>(TYPEFACE_STYLE_COUNT));
+      typefaces = derivedTypefaces.get(family);
+    }
+
+    Typeface typeface = typefaces.get(typefaceStyle);
+    if (typeface == null)
+    {
+      typeface = Typeface.create(family, typefaceStyle);
+      typefaces.set(typefaceStyle, typeface);
+    }
+    return typeface;
+  }
+
+  /**
+   * Clears the resolved typefaces cache.
+   */
+  public static void clearTypefaceCache()
+  {
+    familyTypefaces.clear();
+    derivedTypefaces.clear();
   }
 
   public static Typeface getTypeface(String fontFamily, String fontStyle, String fontVariant, int fontWeight)
@@ -94,7 +455,7 @@ public final class FontUtils
     if (ref == null)
       return getTypeface(fontFamily, getTypefaceStyle(fontStyle, fontVariant, fontWeight));
 
-    return Typeface.create(ref, FontUtils.getTypefaceStyle(fontStyle, fontVariant, fontWeight));
+    return getTypeface(ref, getTypefaceStyle(fontStyle, fontVariant, fontWeight));
   }
 
   public static String getFontFamily(AssetManager assets, String fontPath)
@@ -0,0 +1,227 @@
+// Copyright @ MyScript. All rights reserved.
+
+package com.myscript.iink.uireferenceimplementation;
+
+import com.myscript.iink.text.GlyphMetrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.collection.LruCache;
+import androidx.core.util.Pair;
+
+/**
+ * Glyph metrics cache, shared by the engine threads measuring text.
+ * <p>
+ * Single code point glyphs are keyed by font ID and code point packed in a {@code long}, and stored
+ * in a fixed size open-addressing table: lookups are lock-free and do not allocate. Other glyphs
+ * (combining sequences, emoji sequences) are stored in a smaller locked LRU cache.
+ */
+final class GlyphMetricsCache
+{
+  private static final int CAPACITY = 4096; // power of two
+  private static final int MAX_PROBE_COUNT = 8;
+  private static final int SEQUENCE_CAPACITY = 256;
+
+  interface EntryVisitor
+  {
+    void visit(long key, @NonNull GlyphMetrics metrics);
+  }
+
+  private static final class Entry
+  {
+    final long key;
+    @NonNull
+    final GlyphMetrics metrics;
+
+    Entry(long key, @NonNull GlyphMetrics metrics)
+    {
+      this.key = key;
+      this.metrics = metrics;
+    }
+  }
+
+  @NonNull
+  private final AtomicReferenceArray<Entry> entries = new AtomicReferenceArray<>(CAPACITY);
+  @NonNull
+  private final AtomicInteger entryCount = new AtomicInteger();
+  @NonNull
+  private final LruCache<Pair<Integer, String>, GlyphMetrics> sequences = new LruCache<>(SEQUENCE_CAPACITY);
+
+  @NonNull
+  private final AtomicLong hitCount = new AtomicLong();
+  @NonNull
+  private final AtomicLong missCount = new AtomicLong();
+
+  static long getKey(int fontId, int codePoint)
+  {
+    return ((long) fontId << 32) | (codePoint & 0xFFFFFFFFL);
+  }
+
+  static int getFontId(long key)
+  {
+    return (int) (key >>> 32);
+  }
+
+  static int getCodePoint(long key)
+  {
+    return (int) key;
+  }
+
+  /**
+   * @return whether the single code point glyph metrics are cached, without counting a hit or a miss.
+   */
+  boolean contains(long key)
+  {
+    int index = getIndex(key);
+    for (int i = 0; i < MAX_PROBE_COUNT; ++i)
+    {
+      Entry entry = entries.get((index + i) & (CAPACITY - 1));
+      if (entry == null)
+        return false;
+      if (entry.key == key)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Visits the single code point glyph metrics.
+   */
+  void forEach(@NonNull EntryVisitor visitor)
+  {
+    for (int slot = 0; slot < CAPACITY; ++slot)
+    {
+      Entry entry = entries.get(slot);
+      if (entry != null)
+        visitor.visit(entry.key, entry.metrics);
+    }
+  }
+
+  @Nullable
+  GlyphMetrics get(long key)
+  {
+    int index = getIndex(key);
+    for (int i = 0; i < MAX_PROBE_COUNT; ++i)
+    {
+      Entry entry = entries.get((index + i) & (CAPACITY - 1));
+      if (entry == null)
+        break;
+      if (entry.key == key)
+      {
+        hitCount.incrementAndGet();
+        return entry.metrics;
+      }
+    }
+    missCount.incrementAndGet();
+    return null;
+  }
+
+  void put(long key, @NonNull GlyphMetrics metrics)
+  {
+    insert(new Entry(key, metrics));
+  }
+
+  private void insert(@NonNull Entry newEntry)
+  {
+    long key = newEntry.key;
+    int index = getIndex(key);
+    for (int i = 0; i < MAX_PROBE_COUNT; ++i)
+    {
+      int slot = (index + i) & (CAPACITY - 1);
+      Entry entry = entries.get(slot);
+      if (entry == null)
+      {
+        if (entries.compareAndSet(slot, null, newEntry))
+        {
+          entryCount.incrementAndGet();
+          return;
+        }
+        entry = entries.get(slot);
+      }
+      if (entry != null && entry.key == key)
+        return; // already stored by another thread
+    }
+    // probe sequence is full: replace its first entry
+    entries.set(index, newEntry);
+  }
+
+  @Nullable
+  GlyphMetrics get(int fontId, @NonNull String glyph)
+  {
+    GlyphMetrics metrics;
+    synchronized (sequences)
+    {
+      metrics = sequences.get(new Pair<>(fontId, glyph));
+    }
+    if (metrics != null)
+      hitCount.incrementAndGet();
+    else
+      missCount.incrementAndGet();
+    return metrics;
+  }
+
+  void put(int fontId, @NonNull String glyph, @NonNull GlyphMetrics metrics)
+  {
+    synchronized (sequences)
+    {
+      sequences.put(new Pair<>(fontId, glyph), metrics);
+    }
+  }
+
+  long getHitCount()
+  {
+    return hitCount.get();
+  }
+
+  long getMissCount()
+  {
+    return missCount.get();
+  }
+
+  int size()
+  {
+    synchronized (sequences)
+    {
+      return entryCount.get() + sequences.size();
+    }
+  }
+
+  /**
+   * Drops entries, keeping about the given ratio of them.
+   */
+  void trim(float keepRatio)
+  {
+    // empty the table, then insert back the kept entries, so that no probe sequence is broken
+    Entry[] removedEntries = new Entry[CAPACITY];
+    int removedCount = 0;
+    for (int slot = 0; slot < CAPACITY; ++slot)
+    {
+      Entry entry = entries.getAndSet(slot, null);
+      if (entry != null)
+      {
+        entryCount.decrementAndGet();
+        removedEntries[removedCount++] = entry;
+      }
+    }
+    int keptCount = (int) (removedCount * keepRatio);
+    for (int i = 0; i < keptCount; ++i)
+      insert(removedEntries[i]);
+    synchronized (sequences)
+    {
+      sequences.trimToSize((int) (sequences.size() * keepRatio));
+    }
+  }
+
+  private static int getIndex(long key)
+  {
+    // 64-bit mix, so that consecutive code points of a font spread over the table
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    return (int) key & (CAPACITY - 1);
+  }
+}
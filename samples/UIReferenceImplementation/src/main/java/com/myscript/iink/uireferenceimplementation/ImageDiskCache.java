@@ -0,0 +1,260 @@
+// Copyright @ MyScript. All rights reserved.
+
+package com.myscript.iink.uireferenceimplementation;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Disk cache of downscaled images, used by {@link ImageLoader} to avoid decoding the original
+ * image files again after a restart.
+ * <p>
+ * Entries are keyed by image url, file modification time and size level, and evicted in least
+ * recently used order when the cache exceeds its size.
+ */
+public class ImageDiskCache
+{
+  private static final String TAG = "ImageDiskCache";
+  private static final String FILE_EXTENSION = ".webp";
+  private static final String TEMP_FILE_EXTENSION = ".tmp";
+  private static final int COMPRESSION_QUALITY = 90;
+
+  @NonNull
+  private final File directory;
+  private final long maxBytes;
+  // total size of the cached files, computed on first use
+  private long size = -1;
+  @Nullable
+  private ExecutorService writeExecutor = null;
+
+  /**
+   * @param directory the cache directory, typically a sub-directory of {@code Context.getCacheDir()}.
+   * @param maxBytes  the maximum size of the cached files.
+   */
+  public ImageDiskCache(@NonNull File directory, long maxBytes)
+  {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+  }
+
+  @NonNull
+  public File getDirectory()
+  {
+    return directory;
+  }
+
+  /**
+   * @return the cache key of an image file decoded at a given size level, or {@code null} if the
+   * file does not exist.
+   */
+  @Nullable
+  public static String getKey(@NonNull File file, int level)
+  {
+    long lastModified = file.lastModified();
+    if (lastModified == 0)
+      return null;
+
+    String source = file.getAbsolutePath() + '\n' + lastModified + '\n' + level;
+    try
+    {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(source.getBytes(StandardCharsets.UTF_8));
+      StringBuilder key = new StringBuilder(digest.length * 2);
+      for (byte b : digest)
+        key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      return key.toString();
+    }
+    catch (NoSuchAlgorithmException e)
+    {
+      return Integer.toHexString(source.hashCode()) + '-' + Integer.toHexString(source.length());
+    }
+  }
+
+  /**
+   * @return the cached image, or {@code null} if not found.
+   */
+  @Nullable
+  public Bitmap get(@NonNull String key, @NonNull Bitmap.Config config)
+  {
+    File file = new File(directory, key + FILE_EXTENSION);
+    if (!file.isFile())
+      return null;
+
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inPreferredConfig = config;
+    Bitmap image = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+    if (image == null)
+    {
+      // corrupted entry
+      synchronized (this)
+      {
+        delete(file);
+      }
+      return null;
+    }
+
+    // least recently used entries are evicted first
+    if (!file.setLastModified(System.currentTimeMillis()))
+      Log.w(TAG, "Unable to update cache entry access time");
+    return image;
+  }
+
+  /**
+   * Stores an image, on the calling thread.
+   */
+  public void put(@NonNull String key, @NonNull Bitmap image)
+  {
+    if (image.isRecycled())
+      return;
+
+    File tempFile = new File(directory, key + TEMP_FILE_EXTENSION);
+    File file = new File(directory, key + FILE_EXTENSION);
+    try
+    {
+      if (!directory.isDirectory() && !directory.mkdirs())
+        throw new IOException("Unable to create cache directory");
+
+      try (OutputStream stream = new FileOutputStream(tempFile))
+      {
+        if (!image.compress(getCompressFormat(), COMPRESSION_QUALITY, stream))
+          throw new IOException("Unable to compress image");
+      }
+
+      synchronized (this)
+      {
+        long oldLength = file.length();
+        if (!tempFile.renameTo(file))
+          throw new IOException("Unable to write cache entry");
+        if (size >= 0)
+          size += file.length() - oldLength;
+        trim();
+      }
+    }
+    catch (IOException e)
+    {
+      Log.w(TAG, "Unable to store image in cache", e);
+      if (tempFile.exists() && !tempFile.delete())
+        Log.w(TAG, "Unable to delete temporary file");
+    }
+  }
+
+  /**
+   * Stores a copy of an image on a background thread, so that the calling (render) thread is not
+   * blocked and the image may be recycled in the meantime.
+   */
+  public void putInBackground(@NonNull String key, @NonNull Bitmap image)
+  {
+    final Bitmap copy;
+    try
+    {
+      copy = image.copy(image.getConfig(), false);
+    }
+    catch (OutOfMemoryError e)
+    {
+      return;
+    }
+    if (copy == null)
+      return;
+
+    synchronized (this)
+    {
+      if (writeExecutor == null)
+      {
+        writeExecutor = Executors.newSingleThreadExecutor(runnable -> {
+          Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+          }, "iink-image-disk-cache");
+          thread.setDaemon(true);
+          return thread;
+        });
+      }
+      writeExecutor.execute(() -> {
+        put(key, copy);
+        copy.recycle();
+      });
+    }
+  }
+
+  /**
+   * Deletes all the cached images.
+   */
+  public synchronized void clear()
+  {
+    File[] files = directory.listFiles();
+    if (files != null)
+    {
+      for (File file : files)
+        delete(file);
+    }
+    size = 0;
+  }
+
+  private void trim()
+  {
+    if (size < 0)
+    {
+      size = 0;
+      File[] files = directory.listFiles();
+      if (files != null)
+      {
+        for (File file : files)
+          size += file.length();
+      }
+    }
+
+    if (size <= maxBytes)
+      return;
+
+    // entries being written are not evicted
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(FILE_EXTENSION));
+    if (files == null)
+      return;
+
+    Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+    for (File file : files)
+    {
+      if (size <= maxBytes)
+        break;
+      delete(file);
+    }
+  }
+
+  private void delete(@NonNull File file)
+  {
+    long length = file.length();
+    if (!file.delete())
+    {
+      Log.w(TAG, "Unable to delete cache entry " + file.getName());
+      return;
+    }
+    if (size >= 0)
+      size -= length;
+  }
+
+  @SuppressWarnings("deprecation")
+  @NonNull
+  private static Bitmap.CompressFormat getCompressFormat()
+  {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R)
+      return Bitmap.CompressFormat.WEBP_LOSSY;
+    else
+      return Bitmap.CompressFormat.WEBP;
+  }
+}
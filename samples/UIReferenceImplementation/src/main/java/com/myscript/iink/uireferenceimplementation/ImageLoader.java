@@ -5,23 +5,73 @@ package com.myscript.iink.uireferenceimplementation;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Color;
+import android.graphics.RectF;
+import android.os.Process;
 import android.util.Log;
 import android.util.Pair;
 import android.util.LruCache;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.myscript.iink.Editor;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 
-public class ImageLoader
+public class ImageLoader implements CacheRegistry.Cache
 {
+  /**
+   * Notified when an asynchronously decoded image is ready to be drawn.
+   */
+  public interface OnImageLoadedListener
+  {
+    /**
+     * Called from a decode thread.
+     *
+     * @param url    the url of the decoded image.
+     * @param bounds the document area where the image was requested, in model coordinates (mm), so
+     *               that it remains valid after a scroll or a zoom.
+     */
+    void onImageLoaded(@NonNull String url, @NonNull RectF bounds);
+  }
+
   @NonNull
   private final Editor editor;
+  // Decoded images, keyed by url and size level, so that each zoom range uses a suitable resolution
   LruCache<String, Bitmap> cache;
   static final float CACHE_MAX_MEMORY_RATIO = 1.f / 8; // in ]0, 1[
+  // Maximum part of the cache a single decoded image may use
+  private static final float IMAGE_MAX_CACHE_RATIO = 1.f / 4;
+  // Maximum distance between the requested size level and a level drawn while decoding
+  private static final int MAX_FALLBACK_LEVEL_DISTANCE = 3;
+  private static final int DECODE_THREAD_KEEP_ALIVE_MS = 5000;
+
+  // Asynchronous decoding (optional)
+  @Nullable
+  private ThreadPoolExecutor decodeExecutor = null;
+  @Nullable
+  private OnImageLoadedListener listener = null;
+  // pending decodes, with the union of the document areas they were requested for
+  @NonNull
+  private final Map<String, RectF> pendingDecodes = new HashMap<>();
+  // images that could not be decoded, drawn with a placeholder instead of being decoded again
+  @NonNull
+  private final Set<String> failedUrls = new HashSet<>();
+  @Nullable
+  private Bitmap placeholderImage = null;
+
+  // Second level cache of downscaled images (optional)
+  @Nullable
+  private ImageDiskCache diskCache = null;
 
   public ImageLoader(@NonNull Editor editor)
   {
@@ -56,54 +106,331 @@ public class ImageLoader
     return editor;
   }
 
+  /**
+   * Sets the disk cache where downscaled images are stored, so that they are not decoded again from
+   * the original files on next loads.
+   *
+   * @param diskCache the disk cache, {@code null} to disable it.
+   */
+  public synchronized void setDiskCache(@Nullable ImageDiskCache diskCache)
+  {
+    this.diskCache = diskCache;
+  }
+
+  @Nullable
+  public synchronized ImageDiskCache getDiskCache()
+  {
+    return diskCache;
+  }
+
+  public synchronized void setOnImageLoadedListener(@Nullable OnImageLoadedListener listener)
+  {
+    this.listener = listener;
+  }
+
+  @Nullable
+  public synchronized OnImageLoadedListener getOnImageLoadedListener()
+  {
+    return listener;
+  }
+
+  /**
+   * Enables the decoding of images on background threads (default is disabled).
+   * <p>
+   * When enabled, {@link #requestImage(String, String, int, int, RectF)} returns immediately and the
+   * {@link OnImageLoadedListener} is notified when the image is ready.
+   */
+  public synchronized void setAsynchronousDecoding(boolean asynchronousDecoding)
+  {
+    if (asynchronousDecoding == (decodeExecutor != null))
+      return;
+
+    if (asynchronousDecoding)
+    {
+      int threadCount = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+      decodeExecutor = new ThreadPoolExecutor(threadCount, threadCount,
+          DECODE_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+          runnable -> {
+            Thread thread = new Thread(() -> {
+              Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+              runnable.run();
+            }, "iink-image-decode");
+            thread.setDaemon(true);
+            return thread;
+          });
+      decodeExecutor.allowCoreThreadTimeOut(true);
+    }
+    else
+    {
+      decodeExecutor.shutdownNow();
+      decodeExecutor = null;
+      pendingDecodes.clear();
+    }
+  }
+
+  public synchronized boolean isAsynchronousDecoding()
+  {
+    return decodeExecutor != null;
+  }
+
+  /**
+   * Returns the image decoded for the size level of the destination, decoding it if needed.
+   */
   public synchronized Bitmap getImage(final String url, final String mimeType, final int dstWidth, final int dstHeight)
   {
-    Bitmap image = cache.get(url);
+    int level = getSizeLevel(dstWidth, dstHeight);
+    String key = getCacheKey(url, level);
+    Bitmap image = cache.get(key);
     if (image != null)
       return image; // found
 
-    Pair<Bitmap, Boolean> newImage = renderObject(url, mimeType, dstWidth, dstHeight);
+    Pair<Bitmap, Boolean> newImage = renderObject(url, mimeType, level, diskCache, false);
 
     if (newImage.second) // Not dummy
+      putImage(key, newImage.first);
+
+    return newImage.first;
+  }
+
+  /**
+   * Returns the image if it is available, otherwise schedules its decoding and returns {@code null}.
+   * Requests for an image which is already being decoded are merged.
+   * When asynchronous decoding is disabled, behaves like {@link #getImage(String, String, int, int)}.
+   *
+   * @param bounds the document area where the image is drawn, in model coordinates (mm), reported
+   *               to the {@link OnImageLoadedListener} once the image is decoded.
+   * @see #getNearestImage(String, int, int)
+   */
+  @Nullable
+  public synchronized Bitmap requestImage(final String url, final String mimeType, final int dstWidth, final int dstHeight, @NonNull RectF bounds)
+  {
+    if (decodeExecutor == null)
+      return getImage(url, mimeType, dstWidth, dstHeight);
+
+    final int level = getSizeLevel(dstWidth, dstHeight);
+    final String key = getCacheKey(url, level);
+    Bitmap image = cache.get(key);
+    if (image != null)
+      return image; // found
+
+    if (failedUrls.contains(url))
+      return placeholderImage;
+
+    RectF pendingBounds = pendingDecodes.get(key);
+    if (pendingBounds != null)
+    {
+      // already being decoded
+      pendingBounds.union(bounds);
+      return null;
+    }
+
+    try
+    {
+      decodeExecutor.execute(() -> decodeImage(url, mimeType, level, key));
+      pendingDecodes.put(key, new RectF(bounds));
+    }
+    catch (RejectedExecutionException e)
+    {
+      Log.w("ImageLoader", "Unable to schedule image decoding", e);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the image already decoded for the size level closest to the destination size, if any.
+   * Used to draw an image while it is being decoded at the requested size.
+   */
+  @Nullable
+  public synchronized Bitmap getNearestImage(final String url, final int dstWidth, final int dstHeight)
+  {
+    int level = getSizeLevel(dstWidth, dstHeight);
+    for (int distance = 1; distance <= MAX_FALLBACK_LEVEL_DISTANCE; ++distance)
     {
-      int imageSize = newImage.first.getByteCount();
-      if (imageSize > cache.maxSize())
+      // prefer a higher resolution
+      Bitmap image = cache.get(getCacheKey(url, level + distance));
+      if (image == null && level - distance >= 0)
+        image = cache.get(getCacheKey(url, level - distance));
+      if (image != null)
+        return image;
+    }
+    return null;
+  }
+
+  private void decodeImage(String url, String mimeType, int level, String key)
+  {
+    ImageDiskCache imageDiskCache;
+    synchronized (this)
+    {
+      imageDiskCache = diskCache;
+    }
+
+    // decode outside of the lock, so that rendering is not blocked
+    Pair<Bitmap, Boolean> newImage = renderObject(url, mimeType, level, imageDiskCache, true);
+
+    RectF bounds;
+    OnImageLoadedListener imageLoadedListener;
+    synchronized (this)
+    {
+      bounds = pendingDecodes.remove(key);
+      if (newImage.second) // Not dummy
+      {
+        putImage(key, newImage.first);
+      }
+      else
       {
-        Log.w("ImageLoader", "Image too big for cache: resizing cache ("
-            + imageSize / (1024.f * 1024.f) + "MB > " + cache.maxSize() / (1024.f * 1024.f) + "MB)");
-        cache.resize(imageSize);
+        failedUrls.add(url);
+        if (placeholderImage == null)
+          placeholderImage = newImage.first;
       }
+      imageLoadedListener = listener;
+    }
 
-      cache.put(url, newImage.first);
+    if (bounds != null && imageLoadedListener != null)
+      imageLoadedListener.onImageLoaded(url, bounds);
+  }
+
+  private void putImage(String key, Bitmap image)
+  {
+    // images are decoded within the cache budget (see renderObject()), all size levels share it
+    if (image.getByteCount() > cache.maxSize())
+    {
+      Log.w("ImageLoader", "Image too big for cache (" + image.getByteCount() / (1024.f * 1024.f)
+          + "MB > " + cache.maxSize() / (1024.f * 1024.f) + "MB)");
+      return;
     }
 
-    return newImage.first;
+    cache.put(key, image);
+  }
+
+  @Override
+  public synchronized long getByteCount()
+  {
+    return cache.size();
+  }
+
+  @Override
+  public synchronized void trim(float keepRatio)
+  {
+    cache.trimToSize((int) (cache.size() * keepRatio));
+  }
+
+  /**
+   * @return the size level of a destination: its longest side rounded up to a power of two,
+   * as an exponent.
+   */
+  static int getSizeLevel(int dstWidth, int dstHeight)
+  {
+    int size = Math.max(1, Math.max(dstWidth, dstHeight));
+    return 32 - Integer.numberOfLeadingZeros(size - 1);
   }
 
-  private Pair<Bitmap, Boolean> renderObject(String url, String mimeType, int dstWidth, int dstHeight)
+  @NonNull
+  private static String getCacheKey(String url, int level)
+  {
+    return url + '@' + level;
+  }
+
+  private static void storeInDiskCache(@NonNull ImageDiskCache diskCache, @NonNull String key, @NonNull Bitmap image, boolean decodingThread)
+  {
+    // never write files on the render thread
+    if (decodingThread)
+      diskCache.put(key, image);
+    else
+      diskCache.putInBackground(key, image);
+  }
+
+  private static boolean isOpaque(String mimeType)
+  {
+    return mimeType.equals("image/jpeg") || mimeType.equals("image/jpg");
+  }
+
+  /**
+   * @param diskCache      the disk cache to read the image from, and to store it to when downscaled.
+   * @param decodingThread whether this is a decode thread, where the disk cache can be written.
+   */
+  private Pair<Bitmap, Boolean> renderObject(String url, String mimeType, int level, @Nullable ImageDiskCache diskCache, boolean decodingThread)
   {
     if (mimeType.startsWith("image/"))
     {
       try
       {
         File file = new File(url);
-        Bitmap image = BitmapFactory.decodeFile(file.getAbsolutePath());
+        Bitmap.Config config = isOpaque(mimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
 
-        if (image != null)
+        String diskCacheKey = diskCache != null ? ImageDiskCache.getKey(file, level) : null;
+        if (diskCacheKey != null)
         {
-          // Reduce size if larger than destination
-          if (image.getWidth() > dstWidth || image.getHeight() > dstHeight)
+          Bitmap cachedImage = diskCache.get(diskCacheKey, config);
+          if (cachedImage != null)
+            return Pair.create(cachedImage, true);
+        }
+
+        // Read the image size first, to decode it directly at a reduced resolution
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        int srcWidth = options.outWidth;
+        int srcHeight = options.outHeight;
+
+        if (srcWidth > 0 && srcHeight > 0)
+        {
+          int bytesPerPixel = config == Bitmap.Config.RGB_565 ? 2 : 4;
+
+          // Target size: the longest side matches the size level, without upscaling,
+          // and the image uses at most a fraction of the cache budget
+          float targetScale = Math.min(1.f, (float) (1 << level) / Math.max(srcWidth, srcHeight));
+          int targetWidth = Math.max(1, Math.round(srcWidth * targetScale));
+          int targetHeight = Math.max(1, Math.round(srcHeight * targetScale));
+          while ((long) targetWidth * targetHeight * bytesPerPixel > cache.maxSize() * IMAGE_MAX_CACHE_RATIO
+              && (targetWidth > 1 || targetHeight > 1))
+          {
+            targetWidth = Math.max(1, targetWidth / 2);
+            targetHeight = Math.max(1, targetHeight / 2);
+          }
+
+          options.inJustDecodeBounds = false;
+          options.inPreferredConfig = config;
+          options.inSampleSize = 1;
+          while (srcWidth / (options.inSampleSize * 2) >= targetWidth && srcHeight / (options.inSampleSize * 2) >= targetHeight)
+            options.inSampleSize *= 2;
+
+          Bitmap image = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+
+          // Only downscaled images are worth storing: others are as fast to decode from the original
+          if (image != null && diskCacheKey != null && options.inSampleSize > 1
+              && image.getWidth() <= targetWidth && image.getHeight() <= targetHeight)
+          {
+            storeInDiskCache(diskCache, diskCacheKey, image, decodingThread);
+          }
+
+          if (image != null)
           {
-            Bitmap scaledImage = Bitmap.createScaledBitmap(image, dstWidth, dstHeight, false);
+            // Reduce size if larger than target
+            if (image.getWidth() > targetWidth || image.getHeight() > targetHeight)
+            {
+              Bitmap scaledImage = Bitmap.createScaledBitmap(image, targetWidth, targetHeight, true);
 
-            if (scaledImage != null)
-              return Pair.create(scaledImage, true);
+              if (scaledImage != null)
+              {
+                if (scaledImage != image)
+                  image.recycle();
+                if (diskCacheKey != null)
+                  storeInDiskCache(diskCache, diskCacheKey, scaledImage, decodingThread);
+                return Pair.create(scaledImage, true);
+              }
+              else
+              {
+                Log.e("ImageLoader", "Unable to scale image: using placeholder image");
+              }
+            }
             else
-              Log.e("ImageLoader", "Unable to scale image: using placeholder image");
+            {
+              return Pair.create(image, true);
+            }
           }
           else
           {
-            return Pair.create(image, true);
+            Log.e("ImageLoader", "Unable to decode file: using placeholder image");
           }
         }
         else
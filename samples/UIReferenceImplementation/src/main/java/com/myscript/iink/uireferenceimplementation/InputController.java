@@ -3,12 +3,15 @@
 package com.myscript.iink.uireferenceimplementation;
 
 import android.content.Context;
+import android.graphics.Matrix;
 import android.os.SystemClock;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.View;
+import android.widget.OverScroller;
 
 import com.myscript.iink.ContentBlock;
 import com.myscript.iink.Editor;
@@ -43,6 +46,8 @@ public class InputController implements View.OnTouchListener, GestureDetector.On
   private static final float SCALING_SENSIBILITY = 1.5f;
   private static final float SCALING_THRESHOLD = 0.02f;
 
+  private static final EnumSet<IRenderTarget.LayerType> ALL_LAYERS = EnumSet.allOf(IRenderTarget.LayerType.class);
+
   private final EditorView editorView;
   private final Editor editor;
   private int _inputMode;
@@ -63,6 +68,37 @@ public class InputController implements View.OnTouchListener, GestureDetector.On
 
   private boolean isScrollingEnabled = true;
 
+  // Scroll and fling view offset changes, applied at most once per frame
+  private final OverScroller scroller;
+  private final Choreographer.FrameCallback frameCallback = this::doFrame;
+  private boolean isFrameCallbackPosted = false;
+  private boolean isFlinging = false;
+  private float pendingScrollX = 0;
+  private float pendingScrollY = 0;
+  private final Point scrollOffset = new Point(0, 0);
+
+  // Zoom preview: during a pinch, the rendered layers are transformed instead of rendered again
+  private boolean isZoomPreviewEnabled = false;
+  private boolean isZoomPreviewing = false;
+  private final Matrix zoomPreviewTransform = new Matrix();
+  private final float[] zoomPreviewValues = new float[9];
+
+  // Pointer events of historical samples batches, sent from the UI thread
+  private final PointerEventPool pointerEventPool = new PointerEventPool();
+  // Sends pointer events on a dedicated thread, when enabled
+  @Nullable
+  private InputDispatcher inputDispatcher = null;
+  private final InputDispatcher.LatencyCounters dispatchLatencyCounters = new InputDispatcher.LatencyCounters();
+
+  // Motion prediction of pen strokes, for display only
+  private static final int MAX_PREDICTED_POINT_COUNT = 8;
+  @Nullable
+  private MotionPredictor motionPredictor = null;
+  private float predictionTime;
+  private boolean isPredicting = false;
+  private final float[] predictionBuffer = new float[2 * MAX_PREDICTED_POINT_COUNT];
+  private final float[] predictedPoints = new float[2 * (MAX_PREDICTED_POINT_COUNT + 1)];
+
   public InputController(Context context, EditorView editorView, Editor editor)
   {
     this.editorView = editorView;
@@ -71,6 +107,7 @@ public class InputController implements View.OnTouchListener, GestureDetector.On
     _inputMode = INPUT_MODE_AUTO;
     scaleGestureDetector = new ScaleGestureDetector(context, this);
     gestureDetector = new GestureDetector(context, this);
+    scroller = new OverScroller(context);
 
     long rel_t = SystemClock.uptimeMillis();
     long abs_t = System.currentTimeMillis();
@@ -106,6 +143,16 @@ public class InputController implements View.OnTouchListener, GestureDetector.On
     isScrollingEnabled = enabled;
   }
 
+  /**
+   * Enables the zoom preview (default is disabled): during a pinch gesture, the last rendered frame
+   * is scaled and translated, and the content is rendered again at the final zoom level only, when
+   * the gesture ends.
+   */
+  public final synchronized void setZoomPreviewEnabled(boolean enabled)
+  {
+    isZoomPreviewEnabled = enabled;
+  }
+
   public final synchronized IInputControllerListener getListener()
   {
     return _listener;
@@ -116,6 +163,83 @@ public class InputController implements View.OnTouchListener, GestureDetector.On
     return previousPointerId;
   }
 
+  /**
+   * Sets the motion predictor of pen and highlighter strokes: the points predicted one frame after
+   * the last captured point are drawn over the CAPTURE layer, but never sent to the editor.
+   *
+   * @param motionPredictor the predictor, {@code null} to disable motion prediction (default).
+   */
+  public final void setMotionPredictor(@Nullable MotionPredictor motionPredictor)
+  {
+    clearPrediction();
+    this.motionPredictor = motionPredictor;
+    if (motionPredictor != null)
+      predictionTime = FrameTimeEstimator.getFrameTime(editorView.getContext());
+  }
+
+  @Nullable
+  public final MotionPredictor getMotionPredictor()
+  {
+    return motionPredictor;
+  }
+
+  /**
+   * Enables or disables sending pointer events to the editor on a dedicated input thread, instead of
+   * the UI thread. Disabling sends the pending events and stops the thread: disable before closing
+   * the editor. While enabled, pointer events sent directly to the editor may be received before
+   * the pending ones.
+   */
+  public final void setDispatchThreadEnabled(boolean enabled)
+  {
+    if (enabled == (inputDispatcher != null) || editor == null)
+      return;
+    if (enabled)
+    {
+      inputDispatcher = new InputDispatcher(editor, eventTimeOffset, dispatchLatencyCounters);
+    }
+    else
+    {
+      inputDispatcher.stop();
+      inputDispatcher = null;
+    }
+  }
+
+  public final boolean isDispatchThreadEnabled()
+  {
+    return inputDispatcher != null;
+  }
+
+  /**
+   * @return the number of samples sent to the editor since the last reset of the latency counters.
+   */
+  public final long getDispatchedSampleCount()
+  {
+    return dispatchLatencyCounters.getSampleCount();
+  }
+
+  /**
+   * @return the average latency from the event time of the samples to their dispatch to the
+   * editor, in ms.
+   */
+  public final float getAverageDispatchLatency()
+  {
+    long sampleCount = dispatchLatencyCounters.getSampleCount();
+    return sampleCount == 0 ? 0 : (float) dispatchLatencyCounters.getTotalLatency() / sampleCount;
+  }
+
+  /**
+   * @return the maximum latency from the event time of a sample to its dispatch to the editor, in ms.
+   */
+  public final long getMaxDispatchLatency()
+  {
+    return dispatchLatencyCounters.getMaxLatency();
+  }
+
+  public final void resetDispatchLatency()
+  {
+    dispatchLatencyCounters.reset();
+  }
+
   private boolean handleOnTouchForPointer(MotionEvent event, int actionMask, int pointerIndex)
   {
     final int pointerId = event.getPointerId(pointerIndex);
@@ -158,15 +282,23 @@ public class InputController implements View.OnTouchListener, GestureDetector.On
     if (iinkPointerType == PointerType.TOUCH)
       gestureDetector.onTouchEvent(event);
 
+    // a new touch stops the current fling
+    if (actionMask == MotionEvent.ACTION_DOWN)
+      stopFling();
+
+    if (actionMask == MotionEvent.ACTION_DOWN || actionMask == MotionEvent.ACTION_MOVE || actionMask == MotionEvent.ACTION_UP)
+      LatencyTracker.getInstance().onInputReceived(getOldestEventTime(event, actionMask != MotionEvent.ACTION_DOWN));
+
     switch (actionMask)
     {
       // ACTION_POINTER_DOWN is "A non-primary pointer has gone down", only called when a pointer is already on the touchscreen.
       case MotionEvent.ACTION_POINTER_DOWN:
       {
         isMultiFingerTouch = true;
+        clearPrediction();
         if (previousPointerId != -1)
         {
-          editor.pointerCancel(previousPointerId);
+          cancelPointer(previousPointerId);
           previousPointerId = -1;
         }
         return true;
@@ -181,23 +313,29 @@ public class InputController implements View.OnTouchListener, GestureDetector.On
         if (tool == PointerTool.PEN || tool == PointerTool.HIGHLIGHTER)
           editorView.requestUnbufferedDispatch(event);
 
+        isPredicting = motionPredictor != null && (tool == PointerTool.PEN || tool == PointerTool.HIGHLIGHTER);
+        if (isPredicting)
+        {
+          motionPredictor.reset();
+          motionPredictor.record(event.getX(pointerIndex), event.getY(pointerIndex), event.getEventTime());
+        }
+
+        if (inputDispatcher != null)
+        {
+          inputDispatcher.write(PointerEventType.DOWN, event, pointerIndex, -1, useTiltInfo, iinkPointerType, pointerId);
+          inputDispatcher.publish();
+          return true;
+        }
         try
         {
-          if (useTiltInfo)
-            editor.pointerDown(event.getX(pointerIndex), event.getY(pointerIndex), eventTimeOffset + event.getEventTime(),
-                event.getPressure(), event.getAxisValue(MotionEvent.AXIS_TILT, pointerIndex), event.getAxisValue(MotionEvent.AXIS_ORIENTATION, pointerIndex), iinkPointerType, pointerId);
-          else
-            editor.pointerDown(event.getX(pointerIndex), event.getY(pointerIndex), eventTimeOffset + event.getEventTime(), event.getPressure(), iinkPointerType, pointerId);
+          dispatchPointer(PointerEventType.DOWN, event, pointerIndex, useTiltInfo, pointerId);
         }
         catch (UnsupportedOperationException e) {
           // Special case: pointerDown already called, discard previous and retry
           editor.pointerCancel(pointerId);
-          if (useTiltInfo)
-            editor.pointerDown(event.getX(pointerIndex), event.getY(pointerIndex), eventTimeOffset + event.getEventTime(),
-                event.getPressure(), event.getAxisValue(MotionEvent.AXIS_TILT, pointerIndex), event.getAxisValue(MotionEvent.AXIS_ORIENTATION, pointerIndex), iinkPointerType, pointerId);
-          else
-            editor.pointerDown(event.getX(pointerIndex), event.getY(pointerIndex), eventTimeOffset + event.getEventTime(), event.getPressure(), iinkPointerType, pointerId);
+          dispatchPointer(PointerEventType.DOWN, event, pointerIndex, useTiltInfo, pointerId);
         }
+        recordDispatchLatency(event, false);
         return true;
       }
       case MotionEvent.ACTION_MOVE:
@@ -205,38 +343,30 @@ public class InputController implements View.OnTouchListener, GestureDetector.On
         if (isMultiFingerTouch)
           return true;
 
+        if (isPredicting)
+          predict(event, pointerIndex);
+
+        if (inputDispatcher != null)
+        {
+          for (int i = 0; i < historySize; ++i)
+            inputDispatcher.write(PointerEventType.MOVE, event, pointerIndex, i, useTiltInfo, iinkPointerType, pointerId);
+          inputDispatcher.write(PointerEventType.MOVE, event, pointerIndex, -1, useTiltInfo, iinkPointerType, pointerId);
+          inputDispatcher.publish();
+          return true;
+        }
         if (historySize > 0)
         {
-          PointerEvent[] pointerEvents = new PointerEvent[historySize + 1];
-          if (useTiltInfo)
-          {
-            for (int i = 0; i < historySize; ++i)
-            {
-              pointerEvents[i] = new PointerEvent(PointerEventType.MOVE, event.getHistoricalX(pointerIndex, i), event.getHistoricalY(pointerIndex, i), eventTimeOffset + event.getHistoricalEventTime(i),
-                  event.getHistoricalPressure(pointerIndex, i), event.getHistoricalAxisValue(MotionEvent.AXIS_TILT, pointerIndex, i), event.getHistoricalAxisValue(MotionEvent.AXIS_ORIENTATION, pointerIndex, i), iinkPointerType, pointerId);
-            }
-            pointerEvents[historySize] = new PointerEvent(PointerEventType.MOVE, event.getX(pointerIndex), event.getY(pointerIndex), eventTimeOffset + event.getEventTime(),
-                event.getPressure(), event.getAxisValue(MotionEvent.AXIS_TILT, pointerIndex), event.getAxisValue(MotionEvent.AXIS_ORIENTATION, pointerIndex), iinkPointerType, pointerId);
-          }
-          else
-          {
-            for (int i = 0; i < historySize; ++i)
-            {
-              pointerEvents[i] = new PointerEvent(PointerEventType.MOVE, event.getHistoricalX(pointerIndex, i), event.getHistoricalY(pointerIndex, i), eventTimeOffset + event.getHistoricalEventTime(i),
-                  event.getHistoricalPressure(pointerIndex, i), iinkPointerType, pointerId);
-            }
-            pointerEvents[historySize] = new PointerEvent(PointerEventType.MOVE, event.getX(pointerIndex), event.getY(pointerIndex), eventTimeOffset + event.getEventTime(), event.getPressure(), iinkPointerType, pointerId);
-          }
+          PointerEvent[] pointerEvents = pointerEventPool.getBatch(historySize + 1);
+          for (int i = 0; i < historySize; ++i)
+            setPointerEvent(pointerEvents[i], PointerEventType.MOVE, event, pointerIndex, i, useTiltInfo, pointerId);
+          setPointerEvent(pointerEvents[historySize], PointerEventType.MOVE, event, pointerIndex, -1, useTiltInfo, pointerId);
           editor.pointerEvents(pointerEvents, true);
         }
         else // no history
         {
-          if (useTiltInfo)
-            editor.pointerMove(event.getX(pointerIndex), event.getY(pointerIndex), eventTimeOffset + event.getEventTime(),
-                event.getPressure(), event.getAxisValue(MotionEvent.AXIS_TILT, pointerIndex), event.getAxisValue(MotionEvent.AXIS_ORIENTATION, pointerIndex), iinkPointerType, pointerId);
-          else
-            editor.pointerMove(event.getX(pointerIndex), event.getY(pointerIndex), eventTimeOffset + event.getEventTime(), event.getPressure(), iinkPointerType, pointerId);
+          dispatchPointer(PointerEventType.MOVE, event, pointerIndex, useTiltInfo, pointerId);
         }
+        recordDispatchLatency(event, true);
         return true;
       }
       // ACTION_POINTER_UP is "A non-primary pointer has gone up", at least one finger is still on the touchscreen.
@@ -251,38 +381,31 @@ public class InputController implements View.OnTouchListener, GestureDetector.On
           isMultiFingerTouch = false;
           return true;
         }
+        clearPrediction();
+        if (inputDispatcher != null)
+        {
+          for (int i = 0; i < historySize; ++i)
+            inputDispatcher.write(PointerEventType.MOVE, event, pointerIndex, i, useTiltInfo, iinkPointerType, pointerId);
+          inputDispatcher.write(PointerEventType.UP, event, pointerIndex, -1, useTiltInfo, iinkPointerType, pointerId);
+          inputDispatcher.publish();
+          return true;
+        }
         if (historySize > 0)
         {
-          PointerEvent[] pointerEvents = new PointerEvent[historySize];
-          if (useTiltInfo)
-          {
-            for (int i = 0; i < historySize; ++i)
-            {
-              pointerEvents[i] = new PointerEvent(PointerEventType.MOVE, event.getHistoricalX(pointerIndex, i), event.getHistoricalY(pointerIndex, i), eventTimeOffset + event.getHistoricalEventTime(i),
-                  event.getHistoricalPressure(pointerIndex, i), event.getHistoricalAxisValue(MotionEvent.AXIS_TILT, pointerIndex, i), event.getHistoricalAxisValue(MotionEvent.AXIS_ORIENTATION, pointerIndex, i), iinkPointerType, pointerId);
-            }
-          }
-          else
-          {
-            for (int i = 0; i < historySize; ++i)
-            {
-              pointerEvents[i] = new PointerEvent(PointerEventType.MOVE, event.getHistoricalX(pointerIndex, i), event.getHistoricalY(pointerIndex, i), eventTimeOffset + event.getHistoricalEventTime(i),
-                  event.getHistoricalPressure(pointerIndex, i), iinkPointerType, pointerId);
-            }
-          }
+          PointerEvent[] pointerEvents = pointerEventPool.getBatch(historySize);
+          for (int i = 0; i < historySize; ++i)
+            setPointerEvent(pointerEvents[i], PointerEventType.MOVE, event, pointerIndex, i, useTiltInfo, pointerId);
           editor.pointerEvents(pointerEvents, true);
         }
-        if (useTiltInfo)
-          editor.pointerUp(event.getX(pointerIndex), event.getY(pointerIndex), eventTimeOffset + event.getEventTime(),
-              event.getPressure(), event.getAxisValue(MotionEvent.AXIS_TILT, pointerIndex), event.getAxisValue(MotionEvent.AXIS_ORIENTATION, pointerIndex), iinkPointerType, pointerId);
-        else
-          editor.pointerUp(event.getX(pointerIndex), event.getY(pointerIndex), eventTimeOffset + event.getEventTime(), event.getPressure(), iinkPointerType, pointerId);
+        dispatchPointer(PointerEventType.UP, event, pointerIndex, useTiltInfo, pointerId);
+        recordDispatchLatency(event, true);
 
         return true;
       }
       case MotionEvent.ACTION_CANCEL:
       {
-        editor.pointerCancel(pointerId);
+        clearPrediction();
+        cancelPointer(pointerId);
         return true;
       }
       default:
@@ -290,6 +413,147 @@ public class InputController implements View.OnTouchListener, GestureDetector.On
     }
   }
 
+  private void predict(MotionEvent event, int pointerIndex)
+  {
+    for (int i = 0, historySize = event.getHistorySize(); i < historySize; ++i)
+      motionPredictor.record(event.getHistoricalX(pointerIndex, i), event.getHistoricalY(pointerIndex, i), event.getHistoricalEventTime(i));
+    final float x = event.getX(pointerIndex);
+    final float y = event.getY(pointerIndex);
+    motionPredictor.record(x, y, event.getEventTime());
+
+    int count = motionPredictor.predict(predictionTime, predictionBuffer);
+    if (count > 0)
+    {
+      // the prediction starts from the last captured point
+      predictedPoints[0] = x;
+      predictedPoints[1] = y;
+      System.arraycopy(predictionBuffer, 0, predictedPoints, 2, 2 * count);
+      editorView.setPredictedPoints(predictedPoints, count + 1);
+    }
+    else
+    {
+      editorView.setPredictedPoints(predictedPoints, 0);
+    }
+  }
+
+  private void clearPrediction()
+  {
+    if (!isPredicting)
+      return;
+    isPredicting = false;
+    editorView.setPredictedPoints(predictedPoints, 0);
+  }
+
+  private void cancelPointer(int pointerId)
+  {
+    if (inputDispatcher != null)
+    {
+      inputDispatcher.writeCancel(pointerId);
+      inputDispatcher.publish();
+    }
+    else
+    {
+      editor.pointerCancel(pointerId);
+    }
+  }
+
+  private static long getOldestEventTime(MotionEvent event, boolean withHistory)
+  {
+    return withHistory && event.getHistorySize() > 0 ? event.getHistoricalEventTime(0) : event.getEventTime();
+  }
+
+  /**
+   * Records the latency of the samples of a motion event sent to the editor on the UI thread.
+   */
+  private void recordDispatchLatency(MotionEvent event, boolean withHistory)
+  {
+    final long dispatchTime = SystemClock.uptimeMillis();
+    LatencyTracker.getInstance().onInputDispatched(getOldestEventTime(event, withHistory));
+    if (withHistory)
+    {
+      for (int i = 0, historySize = event.getHistorySize(); i < historySize; ++i)
+        dispatchLatencyCounters.record(event.getHistoricalEventTime(i), dispatchTime);
+    }
+    dispatchLatencyCounters.record(event.getEventTime(), dispatchTime);
+  }
+
+  /**
+   * Sets a pointer event from a sample of a motion event.
+   *
+   * @param historyIndex the index of the historical sample, -1 for the current sample.
+   */
+  private void setPointerEvent(PointerEvent pointerEvent, PointerEventType eventType, MotionEvent event, int pointerIndex, int historyIndex, boolean useTiltInfo, int pointerId)
+  {
+    pointerEvent.eventType = eventType;
+    pointerEvent.pointerType = iinkPointerType;
+    pointerEvent.pointerId = pointerId;
+    if (historyIndex < 0)
+    {
+      pointerEvent.x = event.getX(pointerIndex);
+      pointerEvent.y = event.getY(pointerIndex);
+      pointerEvent.t = eventTimeOffset + event.getEventTime();
+      pointerEvent.f = event.getPressure();
+      pointerEvent.tilt = useTiltInfo ? event.getAxisValue(MotionEvent.AXIS_TILT, pointerIndex) : 0;
+      pointerEvent.orientation = useTiltInfo ? event.getAxisValue(MotionEvent.AXIS_ORIENTATION, pointerIndex) : 0;
+    }
+    else
+    {
+      pointerEvent.x = event.getHistoricalX(pointerIndex, historyIndex);
+      pointerEvent.y = event.getHistoricalY(pointerIndex, historyIndex);
+      pointerEvent.t = eventTimeOffset + event.getHistoricalEventTime(historyIndex);
+      pointerEvent.f = event.getHistoricalPressure(pointerIndex, historyIndex);
+      pointerEvent.tilt = useTiltInfo ? event.getHistoricalAxisValue(MotionEvent.AXIS_TILT, pointerIndex, historyIndex) : 0;
+      pointerEvent.orientation = useTiltInfo ? event.getHistoricalAxisValue(MotionEvent.AXIS_ORIENTATION, pointerIndex, historyIndex) : 0;
+    }
+  }
+
+  /**
+   * Sends the current sample of a motion event to the editor, as a single pointer down, move or up.
+   */
+  private void dispatchPointer(PointerEventType eventType, MotionEvent event, int pointerIndex, boolean useTiltInfo, int pointerId)
+  {
+    final float x = event.getX(pointerIndex);
+    final float y = event.getY(pointerIndex);
+    final long t = eventTimeOffset + event.getEventTime();
+    final float f = event.getPressure();
+    if (useTiltInfo)
+    {
+      final float tilt = event.getAxisValue(MotionEvent.AXIS_TILT, pointerIndex);
+      final float orientation = event.getAxisValue(MotionEvent.AXIS_ORIENTATION, pointerIndex);
+      switch (eventType)
+      {
+        case DOWN:
+          editor.pointerDown(x, y, t, f, tilt, orientation, iinkPointerType, pointerId);
+          break;
+        case MOVE:
+          editor.pointerMove(x, y, t, f, tilt, orientation, iinkPointerType, pointerId);
+          break;
+        case UP:
+          editor.pointerUp(x, y, t, f, tilt, orientation, iinkPointerType, pointerId);
+          break;
+        default:
+          break;
+      }
+    }
+    else
+    {
+      switch (eventType)
+      {
+        case DOWN:
+          editor.pointerDown(x, y, t, f, iinkPointerType, pointerId);
+          break;
+        case MOVE:
+          editor.pointerMove(x, y, t, f, iinkPointerType, pointerId);
+          break;
+        case UP:
+          editor.pointerUp(x, y, t, f, iinkPointerType, pointerId);
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
   @Override
   public boolean onTouch(View v, MotionEvent event)
   {
@@ -374,16 +638,16 @@ public class InputController implements View.OnTouchListener, GestureDetector.On
   @Override
   public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY)
   {
+    // the scaling focus translation is part of the zoom preview
+    if (isZoomPreviewing)
+      return true;
+
     if (editor.isScrollAllowed() && isScrollingEnabled)
     {
-      Point oldOffset = editor.getRenderer().getViewOffset();
-      Point newOffset = new Point(oldOffset.x + distanceX, oldOffset.y + distanceY);
-      editor.getRenderer().setViewOffset(Math.round(newOffset.x), Math.round(newOffset.y));
-      editorView.invalidate(editor.getRenderer(), EnumSet.allOf(IRenderTarget.LayerType.class));
-      if(_viewListener != null)
-      {
-        _viewListener.showScrollbars();
-      }
+      // applied on next frame, together with the other scroll steps received until then
+      pendingScrollX += distanceX;
+      pendingScrollY += distanceY;
+      postFrameCallback();
       return true;
     }
     return false;
@@ -392,7 +656,118 @@ public class InputController implements View.OnTouchListener, GestureDetector.On
   @Override
   public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY)
   {
-    return false;
+    if (!editor.isScrollAllowed() || !isScrollingEnabled || isZoomPreviewing)
+      return false;
+
+    Point offset = editor.getRenderer().getViewOffset();
+    // scrolling moves the content the other way round
+    scroller.fling(Math.round(offset.x + pendingScrollX), Math.round(offset.y + pendingScrollY), Math.round(-velocityX), Math.round(-velocityY),
+        Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    pendingScrollX = 0;
+    pendingScrollY = 0;
+    isFlinging = true;
+    postFrameCallback();
+    return true;
+  }
+
+  /**
+   * Stops the current fling, if any.
+   */
+  public final void stopFling()
+  {
+    if (!isFlinging)
+      return;
+    isFlinging = false;
+    scroller.forceFinished(true);
+  }
+
+  /**
+   * Stops the scroll and fling in progress and the dispatch thread, before the editor is closed.
+   */
+  public final void close()
+  {
+    stopFling();
+    pendingScrollX = 0;
+    pendingScrollY = 0;
+    if (isFrameCallbackPosted)
+    {
+      Choreographer.getInstance().removeFrameCallback(frameCallback);
+      isFrameCallbackPosted = false;
+    }
+    setDispatchThreadEnabled(false);
+  }
+
+  private void postFrameCallback()
+  {
+    if (isFrameCallbackPosted)
+      return;
+    isFrameCallbackPosted = true;
+    Choreographer.getInstance().postFrameCallback(frameCallback);
+  }
+
+  private void doFrame(long frameTimeNanos)
+  {
+    isFrameCallbackPosted = false;
+
+    if (editor.isClosed())
+    {
+      stopFling();
+      pendingScrollX = 0;
+      pendingScrollY = 0;
+      return;
+    }
+
+    boolean flinging = isFlinging && scroller.computeScrollOffset();
+    if (!flinging)
+      isFlinging = false;
+    if (!flinging && pendingScrollX == 0 && pendingScrollY == 0)
+      return;
+
+    Renderer renderer = editor.getRenderer();
+    Point oldOffset = renderer.getViewOffset();
+    if (flinging)
+    {
+      // the fling is not bounded by the scroller, but clamped to the content
+      scrollOffset.x = scroller.getCurrX();
+      scrollOffset.y = scroller.getCurrY();
+    }
+    else
+    {
+      scrollOffset.x = oldOffset.x + pendingScrollX;
+      scrollOffset.y = oldOffset.y + pendingScrollY;
+    }
+    editor.clampViewOffset(scrollOffset);
+    pendingScrollX = 0;
+    pendingScrollY = 0;
+
+    int x = Math.round(scrollOffset.x);
+    int y = Math.round(scrollOffset.y);
+    if (x != Math.round(oldOffset.x) || y != Math.round(oldOffset.y))
+    {
+      editorView.beginViewTransformChange();
+      try
+      {
+        renderer.setViewOffset(x, y);
+        editorView.invalidate(renderer, ALL_LAYERS);
+      }
+      finally
+      {
+        editorView.endViewTransformChange();
+      }
+      if (_viewListener != null)
+      {
+        _viewListener.showScrollbars();
+      }
+    }
+    else if (flinging && (x != scroller.getCurrX() || y != scroller.getCurrY()))
+    {
+      // blocked by the content bounds
+      stopFling();
+      return;
+    }
+
+    if (flinging)
+      postFrameCallback();
   }
 
   @Override
@@ -412,26 +787,48 @@ public class InputController implements View.OnTouchListener, GestureDetector.On
     previousScalingFocusX = currentScalingFocusX;
     previousScalingFocusY = currentScalingFocusY;
 
-    Point oldOffset = renderer.getViewOffset();
-    Point newOffset = new Point(oldOffset.x + distanceX, oldOffset.y + distanceY);
+    if (isZoomPreviewing)
+    {
+      // same transform as below, applied to the last rendered frame
+      zoomPreviewTransform.postTranslate(-distanceX, -distanceY);
+      float deltaSpan = 1.0f + ((1.0f - getPreviousScalingSpan / currentSpan) / SCALING_SENSIBILITY);
+      if (deltaSpan > (1 + SCALING_THRESHOLD) || deltaSpan < (1 - SCALING_THRESHOLD))
+        zoomPreviewTransform.postScale(deltaSpan, deltaSpan, currentScalingFocusX, currentScalingFocusY);
+      getPreviousScalingSpan = currentSpan;
+
+      zoomPreviewTransform.getValues(zoomPreviewValues);
+      editorView.setViewTransformPreview(zoomPreviewValues[Matrix.MSCALE_X], zoomPreviewValues[Matrix.MTRANS_X], zoomPreviewValues[Matrix.MTRANS_Y]);
+      return true;
+    }
+
+    editorView.beginViewTransformChange();
+    try
+    {
+      Point oldOffset = renderer.getViewOffset();
+      Point newOffset = new Point(oldOffset.x + distanceX, oldOffset.y + distanceY);
+
+      // Apply the translation of the scaling focus to the render
+      renderer.setViewOffset(Math.round(newOffset.x), Math.round(newOffset.y));
 
-    // Apply the translation of the scaling focus to the render
-    renderer.setViewOffset(Math.round(newOffset.x), Math.round(newOffset.y));
+      float deltaSpan = getPreviousScalingSpan / currentSpan;
+      // Apply a ratio in order to avoid the scaling to move too fast
+      deltaSpan = 1.0f + ((1.0f - deltaSpan) / SCALING_SENSIBILITY);
 
-    float deltaSpan = getPreviousScalingSpan / currentSpan;
-    // Apply a ratio in order to avoid the scaling to move too fast
-    deltaSpan = 1.0f + ((1.0f - deltaSpan) / SCALING_SENSIBILITY);
+      // Do not move if the scaling is too small
+      if (deltaSpan > (1 + SCALING_THRESHOLD) || deltaSpan < (1 - SCALING_THRESHOLD))
+      {
+        renderer.zoomAt(new Point(currentScalingFocusX, currentScalingFocusY), deltaSpan);
+      }
 
-    // Do not move if the scaling is too small
-    if (deltaSpan > (1 + SCALING_THRESHOLD) || deltaSpan < (1 - SCALING_THRESHOLD))
+      // Store the span for next time
+      getPreviousScalingSpan = currentSpan;
+      editorView.invalidate(renderer, EnumSet.allOf(IRenderTarget.LayerType.class));
+    }
+    finally
     {
-      renderer.zoomAt(new Point(currentScalingFocusX, currentScalingFocusY), deltaSpan);
+      editorView.endViewTransformChange();
     }
 
-    // Store the span for next time
-    getPreviousScalingSpan = currentSpan;
-    editorView.invalidate(renderer, EnumSet.allOf(IRenderTarget.LayerType.class));
-
     if(_viewListener != null)
     {
       _viewListener.showScrollbars();
@@ -442,15 +839,50 @@ public class InputController implements View.OnTouchListener, GestureDetector.On
   @Override
   public boolean onScaleBegin(ScaleGestureDetector scaleGestureDetector)
   {
+    stopFling();
     getPreviousScalingSpan = scaleGestureDetector.getCurrentSpan();
     previousScalingFocusX = scaleGestureDetector.getFocusX();
     previousScalingFocusY = scaleGestureDetector.getFocusY();
+
+    synchronized (this)
+    {
+      isZoomPreviewing = isZoomPreviewEnabled;
+    }
+    zoomPreviewTransform.reset();
     return true;
   }
 
   @Override
   public void onScaleEnd(ScaleGestureDetector scaleGestureDetector)
   {
-    // no-op
+    if (!isZoomPreviewing)
+      return;
+    isZoomPreviewing = false;
+
+    // render once at the final zoom level: the preview maps p to (scale * p + translation)
+    zoomPreviewTransform.getValues(zoomPreviewValues);
+    float scale = zoomPreviewValues[Matrix.MSCALE_X];
+    float translationX = zoomPreviewValues[Matrix.MTRANS_X];
+    float translationY = zoomPreviewValues[Matrix.MTRANS_Y];
+    Renderer renderer = editorView.getRenderer();
+    editorView.beginViewTransformChange();
+    try
+    {
+      if (scale != 1)
+        renderer.zoomAt(new Point(0, 0), scale);
+      Point offset = renderer.getViewOffset();
+      renderer.setViewOffset(Math.round(offset.x - translationX), Math.round(offset.y - translationY));
+      editorView.setViewTransformPreview(1, 0, 0);
+      editorView.invalidate(renderer, ALL_LAYERS);
+    }
+    finally
+    {
+      editorView.endViewTransformChange();
+    }
+
+    if (_viewListener != null)
+    {
+      _viewListener.showScrollbars();
+    }
   }
 }
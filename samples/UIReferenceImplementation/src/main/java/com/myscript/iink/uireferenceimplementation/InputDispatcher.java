@@ -0,0 +1,338 @@
+// Copyright @ MyScript. All rights reserved.
+
+package com.myscript.iink.uireferenceimplementation;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.MotionEvent;
+
+import com.myscript.iink.Editor;
+import com.myscript.iink.PointerEvent;
+import com.myscript.iink.PointerEventType;
+import com.myscript.iink.PointerType;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Sends pointer events to the editor on a dedicated input thread, so that a stall of the editor does
+ * not delay the next touch events, and main thread jank does not delay ink.
+ * <p>
+ * Samples are copied into a preallocated ring, written by the UI thread and read by the input thread
+ * without locking. They are sent in the order they were written, so down, move, up and cancel events
+ * keep their relative order.
+ */
+final class InputDispatcher
+{
+  private static final String TAG = "InputDispatcher";
+
+  private static final int CAPACITY = 1024; // power of two
+  private static final long FULL_WAIT_NANOS = 100_000;
+
+  private static final byte SAMPLE_DOWN = 0;
+  private static final byte SAMPLE_MOVE = 1;
+  private static final byte SAMPLE_UP = 2;
+  private static final byte SAMPLE_CANCEL = 3;
+
+  /**
+   * Input to dispatch latency counters, measured from the event time of each sample to the return of
+   * the editor call that received it.
+   */
+  static final class LatencyCounters
+  {
+    private final AtomicLong sampleCount = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    void record(long eventTime, long dispatchTime)
+    {
+      long latency = Math.max(0, dispatchTime - eventTime);
+      sampleCount.incrementAndGet();
+      totalLatency.addAndGet(latency);
+      long max = maxLatency.get();
+      while (latency > max && !maxLatency.compareAndSet(max, latency))
+        max = maxLatency.get();
+    }
+
+    long getSampleCount()
+    {
+      return sampleCount.get();
+    }
+
+    long getTotalLatency()
+    {
+      return totalLatency.get();
+    }
+
+    long getMaxLatency()
+    {
+      return maxLatency.get();
+    }
+
+    void reset()
+    {
+      sampleCount.set(0);
+      totalLatency.set(0);
+      maxLatency.set(0);
+    }
+  }
+
+  @NonNull
+  private final Editor editor;
+  private final long eventTimeOffset;
+  @NonNull
+  private final LatencyCounters latencyCounters;
+
+  // samples, by ring slot
+  private final byte[] sampleTypes = new byte[CAPACITY];
+  private final float[] xs = new float[CAPACITY];
+  private final float[] ys = new float[CAPACITY];
+  private final long[] eventTimes = new long[CAPACITY]; // uptime, in ms
+  private final float[] pressures = new float[CAPACITY];
+  private final float[] tilts = new float[CAPACITY];
+  private final float[] orientations = new float[CAPACITY];
+  private final boolean[] useTiltInfos = new boolean[CAPACITY];
+  private final PointerType[] pointerTypes = new PointerType[CAPACITY];
+  private final int[] pointerIds = new int[CAPACITY];
+
+  // index of the next sample to read, written by the input thread
+  private final AtomicLong readIndex = new AtomicLong();
+  // index of the next sample to read once published, written by the UI thread
+  private final AtomicLong publishedIndex = new AtomicLong();
+  // index of the next sample to write, only used by the UI thread
+  private long writeIndex = 0;
+
+  private final PointerEventPool pointerEventPool = new PointerEventPool();
+  @NonNull
+  private final Thread thread;
+  private volatile boolean running = true;
+  private volatile boolean parked = false;
+
+  InputDispatcher(@NonNull Editor editor, long eventTimeOffset, @NonNull LatencyCounters latencyCounters)
+  {
+    this.editor = editor;
+    this.eventTimeOffset = eventTimeOffset;
+    this.latencyCounters = latencyCounters;
+    thread = new Thread(this::run, "iink-input");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Writes a down, move or up sample of a motion event, only sent once published.
+   *
+   * @param historyIndex the index of the historical sample, -1 for the current sample.
+   */
+  void write(@NonNull PointerEventType eventType, @NonNull MotionEvent event, int pointerIndex, int historyIndex, boolean useTiltInfo, @NonNull PointerType pointerType, int pointerId)
+  {
+    int slot = acquireSlot();
+    switch (eventType)
+    {
+      case DOWN:
+        sampleTypes[slot] = SAMPLE_DOWN;
+        break;
+      case UP:
+        sampleTypes[slot] = SAMPLE_UP;
+        break;
+      default:
+        sampleTypes[slot] = SAMPLE_MOVE;
+        break;
+    }
+    if (historyIndex < 0)
+    {
+      xs[slot] = event.getX(pointerIndex);
+      ys[slot] = event.getY(pointerIndex);
+      eventTimes[slot] = event.getEventTime();
+      pressures[slot] = event.getPressure();
+      tilts[slot] = useTiltInfo ? event.getAxisValue(MotionEvent.AXIS_TILT, pointerIndex) : 0;
+      orientations[slot] = useTiltInfo ? event.getAxisValue(MotionEvent.AXIS_ORIENTATION, pointerIndex) : 0;
+    }
+    else
+    {
+      xs[slot] = event.getHistoricalX(pointerIndex, historyIndex);
+      ys[slot] = event.getHistoricalY(pointerIndex, historyIndex);
+      eventTimes[slot] = event.getHistoricalEventTime(historyIndex);
+      pressures[slot] = event.getHistoricalPressure(pointerIndex, historyIndex);
+      tilts[slot] = useTiltInfo ? event.getHistoricalAxisValue(MotionEvent.AXIS_TILT, pointerIndex, historyIndex) : 0;
+      orientations[slot] = useTiltInfo ? event.getHistoricalAxisValue(MotionEvent.AXIS_ORIENTATION, pointerIndex, historyIndex) : 0;
+    }
+    useTiltInfos[slot] = useTiltInfo;
+    pointerTypes[slot] = pointerType;
+    pointerIds[slot] = pointerId;
+    ++writeIndex;
+  }
+
+  /**
+   * Writes a pointer cancel, only sent once published.
+   */
+  void writeCancel(int pointerId)
+  {
+    int slot = acquireSlot();
+    sampleTypes[slot] = SAMPLE_CANCEL;
+    eventTimes[slot] = SystemClock.uptimeMillis();
+    pointerTypes[slot] = null;
+    pointerIds[slot] = pointerId;
+    ++writeIndex;
+  }
+
+  /**
+   * Makes the written samples available to the input thread.
+   */
+  void publish()
+  {
+    publishedIndex.set(writeIndex);
+    if (parked)
+      LockSupport.unpark(thread);
+  }
+
+  /**
+   * Sends the remaining samples and stops the input thread.
+   */
+  void stop()
+  {
+    publish();
+    running = false;
+    LockSupport.unpark(thread);
+    try
+    {
+      thread.join();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private int acquireSlot()
+  {
+    if (writeIndex - readIndex.get() >= CAPACITY)
+    {
+      // ring is full: let the input thread catch up, samples must not be dropped
+      publish();
+      while (writeIndex - readIndex.get() >= CAPACITY)
+        LockSupport.parkNanos(FULL_WAIT_NANOS);
+    }
+    return (int) writeIndex & (CAPACITY - 1);
+  }
+
+  private void run()
+  {
+    Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+    while (true)
+    {
+      long index = readIndex.get();
+      long endIndex = publishedIndex.get();
+      if (index == endIndex)
+      {
+        if (!running)
+          break;
+        parked = true;
+        // check again, in case samples were published before the flag was seen
+        if (publishedIndex.get() == index && running)
+          LockSupport.park(this);
+        parked = false;
+        continue;
+      }
+
+      while (index < endIndex)
+      {
+        int count = 1;
+        if (sampleTypes[(int) index & (CAPACITY - 1)] == SAMPLE_MOVE)
+        {
+          // consecutive moves are sent as a single batch
+          while (index + count < endIndex && count < PointerEventPool.BATCH_MAX_SIZE
+              && sampleTypes[(int) (index + count) & (CAPACITY - 1)] == SAMPLE_MOVE)
+            ++count;
+        }
+        try
+        {
+          dispatch(index, count);
+        }
+        catch (RuntimeException e)
+        {
+          Log.e(TAG, "bad touch sequence", e);
+        }
+        long dispatchTime = SystemClock.uptimeMillis();
+        LatencyTracker.getInstance().onInputDispatched(eventTimes[(int) index & (CAPACITY - 1)]);
+        for (int i = 0; i < count; ++i)
+        {
+          int slot = (int) (index + i) & (CAPACITY - 1);
+          latencyCounters.record(eventTimes[slot], dispatchTime);
+        }
+        index += count;
+        // free the slots for the UI thread
+        readIndex.set(index);
+      }
+    }
+  }
+
+  private void dispatch(long index, int count)
+  {
+    int slot = (int) index & (CAPACITY - 1);
+    switch (sampleTypes[slot])
+    {
+      case SAMPLE_DOWN:
+        try
+        {
+          pointerDown(slot);
+        }
+        catch (UnsupportedOperationException e)
+        {
+          // Special case: pointerDown already called, discard previous and retry
+          editor.pointerCancel(pointerIds[slot]);
+          pointerDown(slot);
+        }
+        break;
+      case SAMPLE_MOVE:
+        if (count == 1)
+        {
+          if (useTiltInfos[slot])
+            editor.pointerMove(xs[slot], ys[slot], eventTimeOffset + eventTimes[slot], pressures[slot], tilts[slot], orientations[slot], pointerTypes[slot], pointerIds[slot]);
+          else
+            editor.pointerMove(xs[slot], ys[slot], eventTimeOffset + eventTimes[slot], pressures[slot], pointerTypes[slot], pointerIds[slot]);
+        }
+        else
+        {
+          PointerEvent[] pointerEvents = pointerEventPool.getBatch(count);
+          for (int i = 0; i < count; ++i)
+          {
+            int eventSlot = (int) (index + i) & (CAPACITY - 1);
+            PointerEvent pointerEvent = pointerEvents[i];
+            pointerEvent.eventType = PointerEventType.MOVE;
+            pointerEvent.x = xs[eventSlot];
+            pointerEvent.y = ys[eventSlot];
+            pointerEvent.t = eventTimeOffset + eventTimes[eventSlot];
+            pointerEvent.f = pressures[eventSlot];
+            pointerEvent.tilt = tilts[eventSlot];
+            pointerEvent.orientation = orientations[eventSlot];
+            pointerEvent.pointerType = pointerTypes[eventSlot];
+            pointerEvent.pointerId = pointerIds[eventSlot];
+          }
+          editor.pointerEvents(pointerEvents, true);
+        }
+        break;
+      case SAMPLE_UP:
+        if (useTiltInfos[slot])
+          editor.pointerUp(xs[slot], ys[slot], eventTimeOffset + eventTimes[slot], pressures[slot], tilts[slot], orientations[slot], pointerTypes[slot], pointerIds[slot]);
+        else
+          editor.pointerUp(xs[slot], ys[slot], eventTimeOffset + eventTimes[slot], pressures[slot], pointerTypes[slot], pointerIds[slot]);
+        break;
+      case SAMPLE_CANCEL:
+        editor.pointerCancel(pointerIds[slot]);
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void pointerDown(int slot)
+  {
+    if (useTiltInfos[slot])
+      editor.pointerDown(xs[slot], ys[slot], eventTimeOffset + eventTimes[slot], pressures[slot], tilts[slot], orientations[slot], pointerTypes[slot], pointerIds[slot]);
+    else
+      editor.pointerDown(xs[slot], ys[slot], eventTimeOffset + eventTimes[slot], pressures[slot], pointerTypes[slot], pointerIds[slot]);
+  }
+}
@@ -0,0 +1,190 @@
+// Copyright @ MyScript. All rights reserved.
+
+package com.myscript.iink.uireferenceimplementation;
+
+import android.graphics.Picture;
+import android.graphics.RectF;
+import android.util.LruCache;
+
+import com.myscript.iink.graphics.Transform;
+
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Cache of the draw calls of model items, recorded by {@link Canvas} between
+ * {@code startItem()} and {@code endItem()}.
+ * <p>
+ * Items are keyed by ID and by the scale/rotation part of their transform, so that a recorded item
+ * can be replayed at another view offset. Item bounds are expressed in document space (view
+ * coordinates shifted by the renderer view offset), at the view scale the item was recorded with.
+ * <p>
+ * The memory used by recorded pictures is not exposed by Android: the cache is bounded by an estimate
+ * of their size, computed from the recorded draw calls.
+ */
+final class ItemDrawingCache implements CacheRegistry.Cache
+{
+  private static final int MAX_BYTE_COUNT = 8 * 1024 * 1024;
+  // estimated size of a recorded item, in addition to its draw calls
+  static final int ITEM_BYTE_COUNT = 256;
+  // estimated size of a recorded draw call, in addition to its points or glyphs
+  static final int DRAW_CALL_BYTE_COUNT = 64;
+  static final int POINT_BYTE_COUNT = 12; // coordinates and verb
+  static final int GLYPH_BYTE_COUNT = 12; // glyph ID and position
+
+  static final class Item
+  {
+    @NonNull
+    final Picture picture;
+    // translation of the Android canvas matrix when the item was recorded
+    final float deviceTx;
+    final float deviceTy;
+    @NonNull
+    final RectF bounds;
+    // view scale of the bounds, 0 if unknown
+    final float viewScale;
+    // estimated memory use, in bytes
+    final int byteCount;
+
+    Item(@NonNull Picture picture, float deviceTx, float deviceTy, @NonNull RectF bounds, float viewScale, int byteCount)
+    {
+      this.picture = picture;
+      this.deviceTx = deviceTx;
+      this.deviceTy = deviceTy;
+      this.bounds = bounds;
+      this.viewScale = viewScale;
+      this.byteCount = byteCount;
+    }
+  }
+
+  static final class ItemKey
+  {
+    @NonNull
+    final String id;
+    final float xx;
+    final float yx;
+    final float xy;
+    final float yy;
+
+    ItemKey(@NonNull String id, @NonNull Transform transform)
+    {
+      this.id = id;
+      this.xx = (float) transform.xx;
+      this.yx = (float) transform.yx;
+      this.xy = (float) transform.xy;
+      this.yy = (float) transform.yy;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      int hash = id.hashCode();
+      hash = 31 * hash + Float.floatToIntBits(xx);
+      hash = 31 * hash + Float.floatToIntBits(yx);
+      hash = 31 * hash + Float.floatToIntBits(xy);
+      hash = 31 * hash + Float.floatToIntBits(yy);
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (obj == this)
+        return true;
+      if (!(obj instanceof ItemKey))
+        return false;
+      ItemKey other = (ItemKey) obj;
+      return xx == other.xx && yx == other.yx && xy == other.xy && yy == other.yy && id.equals(other.id);
+    }
+  }
+
+  @NonNull
+  private final LruCache<ItemKey, Item> items = new LruCache<ItemKey, Item>(MAX_BYTE_COUNT)
+  {
+    @Override
+    protected int sizeOf(ItemKey key, Item item)
+    {
+      return item.byteCount;
+    }
+  };
+  // incremented on each invalidation, so that items recorded during an invalidation are not cached
+  private int generation = 0;
+  // view scale of the items being recorded
+  private volatile float viewScale = 0;
+
+  synchronized int getGeneration()
+  {
+    return generation;
+  }
+
+  /**
+   * Sets the view scale of the next recorded items, before rendering.
+   */
+  void setViewScale(float viewScale)
+  {
+    this.viewScale = viewScale;
+  }
+
+  float getViewScale()
+  {
+    return viewScale;
+  }
+
+  @Nullable
+  Item get(@NonNull ItemKey key)
+  {
+    return items.get(key);
+  }
+
+  /**
+   * Stores a recorded item, unless the cache was invalidated since the given generation.
+   */
+  synchronized void put(@NonNull ItemKey key, @NonNull Item item, int recordGeneration)
+  {
+    if (recordGeneration == generation)
+      items.put(key, item);
+  }
+
+  /**
+   * Drops the items intersecting a document-space area, whatever the view scale they were recorded with.
+   *
+   * @param scale the view scale the area is expressed at.
+   */
+  synchronized void invalidate(float scale, float left, float top, float right, float bottom)
+  {
+    ++generation;
+    for (Map.Entry<ItemKey, Item> entry : items.snapshot().entrySet())
+    {
+      Item item = entry.getValue();
+      if (scale <= 0 || item.viewScale <= 0)
+      {
+        items.remove(entry.getKey());
+        continue;
+      }
+      float ratio = item.viewScale / scale;
+      RectF bounds = item.bounds;
+      if (bounds.left < right * ratio && left * ratio < bounds.right && bounds.top < bottom * ratio && top * ratio < bounds.bottom)
+        items.remove(entry.getKey());
+    }
+  }
+
+  synchronized void clear()
+  {
+    ++generation;
+    items.evictAll();
+  }
+
+  @Override
+  public long getByteCount()
+  {
+    return items.size();
+  }
+
+  @Override
+  public synchronized void trim(float keepRatio)
+  {
+    items.trimToSize((int) (items.size() * keepRatio));
+  }
+}
@@ -0,0 +1,246 @@
+// Copyright @ MyScript. All rights reserved.
+
+package com.myscript.iink.uireferenceimplementation;
+
+import android.os.SystemClock;
+
+import com.google.gson.JsonObject;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Measures the latency of input samples, from their {@code MotionEvent} event time to each stage of
+ * their processing, and aggregates it into per-session histograms (disabled by default).
+ * <p>
+ * Each span is measured from the event time of the oldest sample not yet through the stage:
+ * <ul>
+ *   <li>{@code receipt}: the sample is received by {@link InputController},</li>
+ *   <li>{@code dispatch}: the editor call receiving the sample returns,</li>
+ *   <li>{@code invalidate}: the CAPTURE layer is invalidated in {@link EditorView},</li>
+ *   <li>{@code draw}: the {@link LayerView} rendering the CAPTURE layer completes {@code onDraw}
+ *   (the frame is then rendered and composited by the system).</li>
+ * </ul>
+ * Times are taken with {@link System#nanoTime()}, which uses the same clock as
+ * {@link SystemClock#uptimeMillis()} on Android.
+ */
+public final class LatencyTracker
+{
+  public static final int SPAN_RECEIPT = 0;
+  public static final int SPAN_DISPATCH = 1;
+  public static final int SPAN_INVALIDATE = 2;
+  public static final int SPAN_DRAW = 3;
+  private static final String[] SPAN_NAMES = {"receipt", "dispatch", "invalidate", "draw"};
+
+  /**
+   * Latency histogram, with fixed width buckets and an overflow bucket.
+   */
+  public static final class Histogram
+  {
+    private static final long BUCKET_WIDTH_NS = 250_000;
+    private static final int BUCKET_COUNT = 800; // up to 200 ms
+
+    private final long[] counts = new long[BUCKET_COUNT + 1];
+    private long count = 0;
+    private long totalNs = 0;
+    private long maxNs = 0;
+
+    void record(long latencyNs)
+    {
+      latencyNs = Math.max(0, latencyNs);
+      ++counts[(int) Math.min(latencyNs / BUCKET_WIDTH_NS, BUCKET_COUNT)];
+      ++count;
+      totalNs += latencyNs;
+      maxNs = Math.max(maxNs, latencyNs);
+    }
+
+    public long getCount()
+    {
+      return count;
+    }
+
+    /**
+     * @return the average latency, in ms.
+     */
+    public float getMean()
+    {
+      return count == 0 ? 0 : totalNs / (count * 1e6f);
+    }
+
+    /**
+     * @return the maximum latency, in ms.
+     */
+    public float getMax()
+    {
+      return maxNs / 1e6f;
+    }
+
+    /**
+     * @param percentile the percentile, in [0, 100].
+     * @return the upper bound of the bucket containing the percentile, in ms (the maximum latency
+     * for the overflow bucket).
+     */
+    public float getPercentile(float percentile)
+    {
+      if (count == 0)
+        return 0;
+      long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+      long cumulatedCount = 0;
+      for (int bucket = 0; bucket < BUCKET_COUNT; ++bucket)
+      {
+        cumulatedCount += counts[bucket];
+        if (cumulatedCount >= rank)
+          return Math.min((bucket + 1) * BUCKET_WIDTH_NS, maxNs) / 1e6f;
+      }
+      return getMax();
+    }
+
+    @NonNull
+    JsonObject toJson()
+    {
+      JsonObject json = new JsonObject();
+      json.addProperty("count", count);
+      json.addProperty("mean", getMean());
+      json.addProperty("p50", getPercentile(50));
+      json.addProperty("p95", getPercentile(95));
+      json.addProperty("p99", getPercentile(99));
+      json.addProperty("max", getMax());
+      return json;
+    }
+  }
+
+  private static final LatencyTracker INSTANCE = new LatencyTracker();
+
+  private volatile boolean enabled = false;
+  private final Histogram[] histograms = new Histogram[SPAN_NAMES.length];
+  private long sessionStartTime;
+  // event time of the oldest sample not yet invalidated, not yet drawn, in ns (-1 if none)
+  private long pendingInvalidateEventTime = -1;
+  private long pendingDrawEventTime = -1;
+
+  private LatencyTracker()
+  {
+    reset();
+  }
+
+  @NonNull
+  public static LatencyTracker getInstance()
+  {
+    return INSTANCE;
+  }
+
+  public void setEnabled(boolean enabled)
+  {
+    if (enabled && !this.enabled)
+      reset();
+    this.enabled = enabled;
+  }
+
+  public boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  /**
+   * Starts a new session, clearing the histograms.
+   */
+  public synchronized void reset()
+  {
+    for (int span = 0; span < histograms.length; ++span)
+      histograms[span] = new Histogram();
+    sessionStartTime = System.nanoTime();
+    pendingInvalidateEventTime = -1;
+    pendingDrawEventTime = -1;
+  }
+
+  /**
+   * @return a copy of the histogram of a span ({@code SPAN_RECEIPT}, {@code SPAN_DISPATCH},
+   * {@code SPAN_INVALIDATE} or {@code SPAN_DRAW}).
+   */
+  @NonNull
+  public synchronized Histogram getHistogram(int span)
+  {
+    Histogram histogram = histograms[span];
+    Histogram copy = new Histogram();
+    System.arraycopy(histogram.counts, 0, copy.counts, 0, histogram.counts.length);
+    copy.count = histogram.count;
+    copy.totalNs = histogram.totalNs;
+    copy.maxNs = histogram.maxNs;
+    return copy;
+  }
+
+  /**
+   * @return the session histograms, as a JSON string.
+   */
+  @NonNull
+  public synchronized String toJson()
+  {
+    JsonObject json = new JsonObject();
+    json.addProperty("sessionDuration", (System.nanoTime() - sessionStartTime) / 1e6f);
+    JsonObject spans = new JsonObject();
+    for (int span = 0; span < histograms.length; ++span)
+      spans.add(SPAN_NAMES[span], histograms[span].toJson());
+    json.add("spans", spans);
+    return json.toString();
+  }
+
+  /**
+   * @param eventTime the event time of the oldest received sample, as returned by {@code MotionEvent.getEventTime()}.
+   */
+  void onInputReceived(long eventTime)
+  {
+    if (!enabled)
+      return;
+    long now = System.nanoTime();
+    long eventTimeNs = eventTime * 1_000_000;
+    synchronized (this)
+    {
+      histograms[SPAN_RECEIPT].record(now - eventTimeNs);
+      if (pendingInvalidateEventTime < 0)
+        pendingInvalidateEventTime = eventTimeNs;
+    }
+  }
+
+  /**
+   * @param eventTime the event time of the oldest dispatched sample, as returned by {@code MotionEvent.getEventTime()}.
+   */
+  void onInputDispatched(long eventTime)
+  {
+    if (!enabled)
+      return;
+    long now = System.nanoTime();
+    synchronized (this)
+    {
+      histograms[SPAN_DISPATCH].record(now - eventTime * 1_000_000);
+    }
+  }
+
+  void onCaptureInvalidated()
+  {
+    if (!enabled)
+      return;
+    long now = System.nanoTime();
+    synchronized (this)
+    {
+      if (pendingInvalidateEventTime < 0)
+        return;
+      histograms[SPAN_INVALIDATE].record(now - pendingInvalidateEventTime);
+      if (pendingDrawEventTime < 0)
+        pendingDrawEventTime = pendingInvalidateEventTime;
+      pendingInvalidateEventTime = -1;
+    }
+  }
+
+  void onCaptureDrawn()
+  {
+    if (!enabled)
+      return;
+    long now = System.nanoTime();
+    synchronized (this)
+    {
+      if (pendingDrawEventTime < 0)
+        return;
+      histograms[SPAN_DRAW].record(now - pendingDrawEventTime);
+      pendingDrawEventTime = -1;
+    }
+  }
+}
@@ -3,8 +3,10 @@
 package com.myscript.iink.uireferenceimplementation;
 
 import android.content.Context;
+import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.graphics.Typeface;
@@ -17,8 +19,10 @@ import com.myscript.iink.Editor;
 import com.myscript.iink.IRenderTarget;
 import com.myscript.iink.IRenderTarget.LayerType;
 import com.myscript.iink.Renderer;
+import com.myscript.iink.graphics.Point;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
@@ -31,6 +35,9 @@ public class LayerView extends View
 {
   private final static int MODEL = 0;
   private final static int CAPTURE = 1;
+  private final static int ALL_LAYERS = -1;
+
+  private final int layer;
   private ImageLoader imageLoader;
 
   @Nullable
@@ -51,6 +58,41 @@ public class LayerView extends View
   private Bitmap bitmap = null; // for API < 28
   @Nullable
   private android.graphics.Canvas sysCanvas = null; // for API < 28
+  // Scroll of the intermediate bitmap content (API < 28): view transform changes that are pure
+  // translations shift the rendered pixels, and only the newly exposed areas are rendered
+  @Nullable
+  private Bitmap scratchBitmap = null;
+  @Nullable
+  private android.graphics.Canvas scratchCanvas = null;
+  // the scratch bitmap only saves rendering: it is released on memory pressure
+  @NonNull
+  private final CacheRegistry.Cache scratchBitmapCache = new CacheRegistry.Cache()
+  {
+    @Override
+    public long getByteCount()
+    {
+      synchronized (LayerView.this)
+      {
+        return scratchBitmap != null ? scratchBitmap.getAllocationByteCount() : 0;
+      }
+    }
+
+    @Override
+    public void trim(float keepRatio)
+    {
+      synchronized (LayerView.this)
+      {
+        releaseScratchBitmap();
+      }
+    }
+  };
+  private boolean viewTransformChanged = false;
+  // view transform of the bitmap content, scale is 0 when unknown
+  private float bitmapOffsetX = 0;
+  private float bitmapOffsetY = 0;
+  private float bitmapScale = 0;
+  @NonNull
+  private final Rect shiftedArea = new Rect();
   @Nullable
   private Canvas iinkCanvas = null;
   @NonNull
@@ -64,6 +106,45 @@ public class LayerView extends View
   private int xMin = 0;
   private int yMin = 0;
 
+  // MODEL layer tiles (API >= 28)
+  private static final int TILE_CACHE_SCREEN_COUNT = 3; // tile cache budget, in full view bitmaps
+  private boolean tileCacheEnabled = true;
+  @Nullable
+  private ModelTileCache tileCache = null;
+  @Nullable
+  private android.graphics.Canvas tileSysCanvas = null;
+  @Nullable
+  private Canvas tileIinkCanvas = null;
+  @Nullable
+  private Thread viewTransformChangeThread = null;
+
+  // MODEL layer item drawing cache (optional)
+  @Nullable
+  private ItemDrawingCache itemCache = null;
+
+  // Reduced quality rendering while the view moves (optional)
+  private static final long DEFAULT_FULL_QUALITY_DELAY_MS = 150;
+  private boolean reducedQualityWhileMoving = false;
+  private long fullQualityDelay = DEFAULT_FULL_QUALITY_DELAY_MS;
+  private int renderQuality = Canvas.RENDER_QUALITY_FULL;
+  @Nullable
+  private Renderer motionRenderer = null;
+  @NonNull
+  private final Runnable fullQualityRunnable = this::restoreFullQuality;
+  // onDraw statistics, by render quality
+  private final long[] frameCounts = new long[2];
+  private final long[] frameTimes = new long[2]; // in ns
+
+  // CAPTURE layer predicted points, drawn over the rendered strokes (never sent to the editor)
+  private static final float DEFAULT_PREDICTION_STROKE_WIDTH_MM = 0.6f;
+  @NonNull
+  private float[] predictedPoints = new float[0];
+  private int predictedPointCount = 0;
+  @NonNull
+  private final Paint predictionPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+  @NonNull
+  private final android.graphics.Path predictionPath = new android.graphics.Path();
+
   public LayerView(Context context)
   {
     this(context, null, 0);
@@ -77,6 +158,40 @@ public class LayerView extends View
   public LayerView(Context context, @Nullable AttributeSet attrs, int defStyleAttr)
   {
     super(context, attrs, defStyleAttr);
+
+    TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.LayerView, defStyleAttr, 0);
+    try
+    {
+      layer = typedArray.getInt(R.styleable.LayerView_iinkLayer, ALL_LAYERS);
+    }
+    finally
+    {
+      typedArray.recycle();
+    }
+
+    predictionPaint.setStyle(Paint.Style.STROKE);
+    predictionPaint.setStrokeCap(Paint.Cap.ROUND);
+    predictionPaint.setStrokeJoin(Paint.Join.ROUND);
+    predictionPaint.setStrokeWidth(DEFAULT_PREDICTION_STROKE_WIDTH_MM * context.getResources().getDisplayMetrics().xdpi / 25.4f);
+  }
+
+  /**
+   * @return whether this view renders at least one of the given layers.
+   */
+  public final boolean rendersAnyOf(@NonNull EnumSet<LayerType> layers)
+  {
+    return (rendersModel() && layers.contains(LayerType.MODEL))
+        || (rendersCapture() && layers.contains(LayerType.CAPTURE));
+  }
+
+  private boolean rendersModel()
+  {
+    return layer == ALL_LAYERS || layer == MODEL;
+  }
+
+  private boolean rendersCapture()
+  {
+    return layer == ALL_LAYERS || layer == CAPTURE;
   }
 
   public void setRenderTarget(IRenderTarget renderTarget)
@@ -109,11 +224,179 @@ public class LayerView extends View
     this.typefaceMap = typefaceMap;
   }
 
+  /**
+   * Enables the MODEL layer tile cache (API 28 and above, default is enabled).
+   * The cache is not used when extra brushes are configured, since GLRenderer works on view-sized surfaces.
+   */
+  public void setTileCacheEnabled(boolean tileCacheEnabled)
+  {
+    synchronized (this)
+    {
+      this.tileCacheEnabled = tileCacheEnabled;
+      releaseTileCache();
+      if (canvasWidth > 0 && canvasHeight > 0)
+        createTileCache(canvasWidth, canvasHeight);
+    }
+    postInvalidate();
+  }
+
+  /**
+   * Enables the cache of model items draw calls (default is disabled).
+   * Each item is recorded once into a {@link android.graphics.Picture}, which is replayed on next frames
+   * until an invalidation touches the item.
+   */
+  public void setItemCacheEnabled(boolean itemCacheEnabled)
+  {
+    synchronized (this)
+    {
+      if (itemCacheEnabled == (itemCache != null))
+        return;
+
+      if (itemCache != null)
+        CacheRegistry.getInstance().unregister(itemCache);
+      itemCache = itemCacheEnabled && rendersModel() ? new ItemDrawingCache() : null;
+      if (itemCache != null)
+        CacheRegistry.getInstance().register(itemCache, CacheRegistry.PRIORITY_LOW);
+      if (iinkCanvas != null)
+        iinkCanvas.setItemCache(itemCache);
+      if (tileIinkCanvas != null)
+        tileIinkCanvas.setItemCache(itemCache);
+    }
+    postInvalidate();
+  }
+
+  /**
+   * Enables reduced quality rendering while the view moves (default is disabled): frames rendered
+   * for view transform changes (scroll, zoom) use {@link Canvas#RENDER_QUALITY_REDUCED}, and a full
+   * quality frame replaces them once the view has not moved for the full quality delay.
+   */
+  public void setReducedQualityWhileMoving(boolean reducedQualityWhileMoving)
+  {
+    synchronized (this)
+    {
+      this.reducedQualityWhileMoving = reducedQualityWhileMoving;
+    }
+    if (!reducedQualityWhileMoving)
+    {
+      removeCallbacks(fullQualityRunnable);
+      post(fullQualityRunnable);
+    }
+  }
+
+  /**
+   * Sets the time without view transform change after which a full quality frame is rendered.
+   */
+  public synchronized void setFullQualityDelay(long delayMs)
+  {
+    fullQualityDelay = delayMs;
+  }
+
+  public synchronized int getRenderQuality()
+  {
+    return renderQuality;
+  }
+
+  /**
+   * @return the number of frames drawn with a render quality, since the last reset.
+   */
+  public synchronized long getFrameCount(int renderQuality)
+  {
+    return frameCounts[renderQuality];
+  }
+
+  /**
+   * @return the average {@code onDraw} duration of the frames drawn with a render quality, in ms.
+   */
+  public synchronized float getAverageFrameTime(int renderQuality)
+  {
+    long frameCount = frameCounts[renderQuality];
+    return frameCount == 0 ? 0 : frameTimes[renderQuality] / (frameCount * 1e6f);
+  }
+
+  public synchronized void resetFrameStatistics()
+  {
+    Arrays.fill(frameCounts, 0);
+    Arrays.fill(frameTimes, 0);
+  }
+
+  private void restoreFullQuality()
+  {
+    synchronized (this)
+    {
+      if (renderQuality == Canvas.RENDER_QUALITY_FULL)
+        return;
+      renderQuality = Canvas.RENDER_QUALITY_FULL;
+      // redraw the whole view, reduced quality frames are not invalidated by the engine
+      if (lastRenderer == null)
+        lastRenderer = motionRenderer;
+      motionRenderer = null;
+      updateArea.set(0, 0, canvasWidth, canvasHeight);
+    }
+    invalidate();
+  }
+
+  /**
+   * Sets the stroke width of the predicted points, in pixels.
+   */
+  public void setPredictionStrokeWidth(float width)
+  {
+    predictionPaint.setStrokeWidth(width);
+  }
+
+  /**
+   * Sets the predicted points of the stroke being captured, drawn over the CAPTURE layer until the
+   * next call (only used by views rendering the CAPTURE layer).
+   *
+   * @param points the points, as x, y pairs: the last captured point followed by the predicted ones.
+   * @param count  the number of points, 0 to clear the prediction.
+   */
+  public void setPredictedPoints(@NonNull float[] points, int count)
+  {
+    if (!rendersCapture())
+      return;
+
+    synchronized (this)
+    {
+      if (count == 0 && predictedPointCount == 0)
+        return;
+      if (predictedPoints.length < 2 * count)
+        predictedPoints = new float[2 * count];
+      System.arraycopy(points, 0, predictedPoints, 0, 2 * count);
+      predictedPointCount = count;
+    }
+    postInvalidate();
+  }
+
+  /**
+   * Marks the start of a view transform change (scroll, zoom) on the calling thread.
+   * Until {@link #endViewTransformChange()}, the invalidations coming from this thread are
+   * considered as pure view transform changes, which do not invalidate the cached MODEL tiles.
+   */
+  public final synchronized void beginViewTransformChange()
+  {
+    viewTransformChangeThread = Thread.currentThread();
+  }
+
+  public final synchronized void endViewTransformChange()
+  {
+    viewTransformChangeThread = null;
+  }
+
   @Override
   protected final void onDraw(android.graphics.Canvas canvas)
   {
     super.onDraw(canvas);
 
+    final long drawStartTime = System.nanoTime();
+    final int quality;
+    synchronized (this)
+    {
+      quality = renderQuality;
+    }
+    iinkCanvas.setRenderQuality(quality);
+    if (tileIinkCanvas != null)
+      tileIinkCanvas.setRenderQuality(quality);
+
     // Draw directly in hardware-accelerated Canvas if scaling is supported (since API 28)
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P)
     {
@@ -129,33 +412,46 @@ public class LayerView extends View
 
       try
       {
-        renderer.drawModel(localUpdateArea.left, localUpdateArea.top, localUpdateArea.width(), localUpdateArea.height(), iinkCanvas);
-        renderer.drawCaptureStrokes(localUpdateArea.left, localUpdateArea.top, localUpdateArea.width(), localUpdateArea.height(), iinkCanvas);
+        draw(renderer, localUpdateArea, canvas);
       }
       finally
       {
         restore(canvas);
       }
+      drawPredictedPoints(canvas);
     }
     else // Draw in intermediate bitmap
     {
       Renderer renderer;
+      boolean viewTransformChanged;
       synchronized (this)
       {
         localUpdateArea.set(this.updateArea);
         this.updateArea.setEmpty();
+        viewTransformChanged = this.viewTransformChanged;
+        this.viewTransformChanged = false;
 
         renderer = lastRenderer;
         lastRenderer = null;
       }
 
+      if (renderer != null)
+      {
+        Point offset = renderer.getViewOffset();
+        float scale = renderer.getViewScale();
+        if (viewTransformChanged)
+          scrollBitmap(offset.x, offset.y, scale, localUpdateArea);
+        bitmapOffsetX = offset.x;
+        bitmapOffsetY = offset.y;
+        bitmapScale = scale;
+      }
+
       if (!localUpdateArea.isEmpty())
       {
         prepare(sysCanvas, localUpdateArea);
         try
         {
-          renderer.drawModel(localUpdateArea.left, localUpdateArea.top, localUpdateArea.width(), localUpdateArea.height(), iinkCanvas);
-          renderer.drawCaptureStrokes(localUpdateArea.left, localUpdateArea.top, localUpdateArea.width(), localUpdateArea.height(), iinkCanvas);
+          draw(renderer, localUpdateArea, sysCanvas);
         }
         finally
         {
@@ -164,7 +460,110 @@ public class LayerView extends View
       }
 
       canvas.drawBitmap(bitmap, 0, 0, null);
+      // not drawn into the bitmap, which is only partially redrawn
+      drawPredictedPoints(canvas);
+    }
+
+    synchronized (this)
+    {
+      ++frameCounts[quality];
+      frameTimes[quality] += System.nanoTime() - drawStartTime;
     }
+
+    if (rendersCapture())
+      LatencyTracker.getInstance().onCaptureDrawn();
+  }
+
+  private void drawPredictedPoints(android.graphics.Canvas canvas)
+  {
+    synchronized (this)
+    {
+      if (predictedPointCount < 2)
+        return;
+
+      predictionPath.rewind();
+      predictionPath.moveTo(predictedPoints[0], predictedPoints[1]);
+      for (int i = 1; i < predictedPointCount; ++i)
+        predictionPath.lineTo(predictedPoints[2 * i], predictedPoints[2 * i + 1]);
+    }
+    canvas.drawPath(predictionPath, predictionPaint);
+  }
+
+  /**
+   * Moves the intermediate bitmap content to a new view offset, and adds the areas to render again
+   * to the update area: all of it if the view transform change is not a pure translation.
+   */
+  private synchronized void scrollBitmap(float offsetX, float offsetY, float scale, @NonNull Rect area)
+  {
+    float dx = offsetX - bitmapOffsetX;
+    float dy = offsetY - bitmapOffsetY;
+    int shiftX = Math.round(dx);
+    int shiftY = Math.round(dy);
+    boolean pureTranslation = bitmapScale != 0 && scale == bitmapScale
+        && Math.abs(dx - shiftX) < 0.01f && Math.abs(dy - shiftY) < 0.01f
+        && Math.abs(shiftX) < canvasWidth && Math.abs(shiftY) < canvasHeight;
+    if (!pureTranslation || !ensureScratchBitmap())
+    {
+      area.set(0, 0, canvasWidth, canvasHeight);
+      return;
+    }
+    if (shiftX == 0 && shiftY == 0)
+      return;
+
+    // a bitmap cannot be drawn into itself: shift it into the scratch bitmap, and swap them
+    scratchCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+    scratchCanvas.drawBitmap(bitmap, -shiftX, -shiftY, null);
+    Bitmap shiftedBitmap = scratchBitmap;
+    scratchBitmap = bitmap;
+    bitmap = shiftedBitmap;
+    sysCanvas.setBitmap(bitmap);
+    scratchCanvas.setBitmap(scratchBitmap);
+
+    // pending updates may have been expressed before or after the shift: render both areas
+    if (!area.isEmpty())
+    {
+      shiftedArea.set(area);
+      shiftedArea.offset(-shiftX, -shiftY);
+      area.union(shiftedArea);
+    }
+    // newly exposed areas
+    if (shiftX > 0)
+      area.union(canvasWidth - shiftX, 0, canvasWidth, canvasHeight);
+    else if (shiftX < 0)
+      area.union(0, 0, -shiftX, canvasHeight);
+    if (shiftY > 0)
+      area.union(0, canvasHeight - shiftY, canvasWidth, canvasHeight);
+    else if (shiftY < 0)
+      area.union(0, 0, canvasWidth, -shiftY);
+    if (!area.intersect(0, 0, canvasWidth, canvasHeight))
+      area.setEmpty();
+  }
+
+  private boolean ensureScratchBitmap()
+  {
+    if (scratchBitmap != null)
+      return true;
+    try
+    {
+      scratchBitmap = Bitmap.createBitmap(canvasWidth, canvasHeight, Bitmap.Config.ARGB_8888);
+    }
+    catch (Exception | OutOfMemoryError e)
+    {
+      return false;
+    }
+    scratchCanvas = new android.graphics.Canvas(scratchBitmap);
+    CacheRegistry.getInstance().register(scratchBitmapCache, CacheRegistry.PRIORITY_LOW);
+    return true;
+  }
+
+  private void releaseScratchBitmap()
+  {
+    if (scratchBitmap == null)
+      return;
+    CacheRegistry.getInstance().unregister(scratchBitmapCache);
+    scratchBitmap.recycle();
+    scratchBitmap = null;
+    scratchCanvas = null;
   }
 
   @Override
@@ -181,11 +580,16 @@ public class LayerView extends View
           iinkCanvas.destroy();
 
         iinkCanvas = new Canvas(null, extraBrushConfigs, typefaceMap, imageLoader, offlineSurfaceManager, metrics.xdpi, metrics.ydpi);
+
+        releaseTileCache();
+        createTileCache(newWidth, newHeight);
       }
       else // Bitmap draw
       {
         if (bitmap != null)
           bitmap.recycle();
+        releaseScratchBitmap();
+        bitmapScale = 0;
         if (iinkCanvas != null)
           iinkCanvas.destroy();
 
@@ -195,7 +599,9 @@ public class LayerView extends View
       }
 
       iinkCanvas.setClearOnStartDraw(false);
+      iinkCanvas.setAsynchronousImageLoading(true);
       iinkCanvas.setKeepGLRenderer(true);
+      iinkCanvas.setItemCache(itemCache);
       canvasWidth = newWidth;
       canvasHeight = newHeight;
     }
@@ -203,6 +609,155 @@ public class LayerView extends View
     super.onSizeChanged(newWidth, newHeight, oldWidth, oldHeight);
   }
 
+  private void draw(Renderer renderer, Rect area, android.graphics.Canvas canvas)
+  {
+    ItemDrawingCache itemCache;
+    synchronized (this)
+    {
+      itemCache = this.itemCache;
+    }
+    if (itemCache != null)
+      itemCache.setViewScale(renderer.getViewScale());
+
+    if (rendersModel())
+    {
+      if (tileCache != null)
+        drawModelTiles(canvas, renderer);
+      else
+        renderer.drawModel(area.left, area.top, area.width(), area.height(), iinkCanvas);
+    }
+    if (rendersCapture())
+    {
+      renderer.drawCaptureStrokes(area.left, area.top, area.width(), area.height(), iinkCanvas);
+      // predicted points extend the last captured stroke, with its color
+      int fillColor = iinkCanvas.getFillColor();
+      if (Color.alpha(fillColor) != 0)
+        predictionPaint.setColor(fillColor);
+    }
+  }
+
+  private void createTileCache(int width, int height)
+  {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.P || !rendersModel() || !tileCacheEnabled || !extraBrushConfigs.isEmpty())
+      return;
+
+    DisplayMetrics metrics = getContext().getResources().getDisplayMetrics();
+    tileCache = new ModelTileCache(TILE_CACHE_SCREEN_COUNT * width * height * 4);
+    tileSysCanvas = new android.graphics.Canvas();
+    tileIinkCanvas = new Canvas(tileSysCanvas, Collections.emptyList(), typefaceMap, imageLoader, offlineSurfaceManager, metrics.xdpi, metrics.ydpi);
+    tileIinkCanvas.setClearOnStartDraw(false);
+    tileIinkCanvas.setAsynchronousImageLoading(true);
+    tileIinkCanvas.setItemCache(itemCache);
+    CacheRegistry.getInstance().register(tileCache, CacheRegistry.PRIORITY_LOW);
+  }
+
+  private void releaseTileCache()
+  {
+    if (tileCache != null)
+    {
+      tileCache.clear();
+      CacheRegistry.getInstance().unregister(tileCache);
+    }
+    if (tileIinkCanvas != null)
+      tileIinkCanvas.destroy();
+    tileCache = null;
+    tileSysCanvas = null;
+    tileIinkCanvas = null;
+  }
+
+  private void drawModelTiles(android.graphics.Canvas canvas, Renderer renderer)
+  {
+    final int tileSize = ModelTileCache.TILE_SIZE;
+    Point offset = renderer.getViewOffset();
+    float scale = renderer.getViewScale();
+    // reduced quality frames may use any tile, full quality frames only full quality tiles
+    boolean fullQuality = tileIinkCanvas.getRenderQuality() == Canvas.RENDER_QUALITY_FULL;
+
+    int firstColumn = (int) Math.floor(offset.x / tileSize);
+    int lastColumn = (int) Math.floor((offset.x + canvasWidth - 1) / tileSize);
+    int firstRow = (int) Math.floor(offset.y / tileSize);
+    int lastRow = (int) Math.floor((offset.y + canvasHeight - 1) / tileSize);
+
+    for (int row = firstRow; row <= lastRow; ++row)
+    {
+      for (int column = firstColumn; column <= lastColumn; ++column)
+      {
+        // tile position in the view
+        float tileX = (float) column * tileSize - offset.x;
+        float tileY = (float) row * tileSize - offset.y;
+
+        Bitmap tile = tileCache.get(scale, column, row, fullQuality);
+        if (tile == null)
+        {
+          int generation = tileCache.getGeneration();
+          tile = renderTile(renderer, tileX, tileY);
+          if (tile == null)
+          {
+            // not enough memory for a new tile: draw this area directly
+            renderer.drawModel((int) Math.floor(tileX), (int) Math.floor(tileY), tileSize + 1, tileSize + 1, iinkCanvas);
+            continue;
+          }
+          // tiles showing image placeholders are rendered again until the images are decoded
+          if (!tileIinkCanvas.hasPendingImages())
+            tileCache.put(scale, column, row, tile, fullQuality, generation);
+        }
+        canvas.drawBitmap(tile, tileX, tileY, null);
+      }
+    }
+  }
+
+  @Nullable
+  private Bitmap renderTile(Renderer renderer, float tileX, float tileY)
+  {
+    final int tileSize = ModelTileCache.TILE_SIZE;
+    Bitmap tile;
+    try
+    {
+      tile = Bitmap.createBitmap(tileSize, tileSize, Bitmap.Config.ARGB_8888);
+    }
+    catch (Exception | OutOfMemoryError e)
+    {
+      return null;
+    }
+
+    tileSysCanvas.setBitmap(tile);
+    tileIinkCanvas.setOrigin(tileX, tileY);
+    try
+    {
+      renderer.drawModel((int) Math.floor(tileX), (int) Math.floor(tileY), tileSize + 1, tileSize + 1, tileIinkCanvas);
+    }
+    finally
+    {
+      tileSysCanvas.setBitmap(null);
+    }
+    return tile;
+  }
+
+  private void invalidateCaches(Renderer renderer, int x, int y, int width, int height, @NonNull EnumSet<LayerType> layers)
+  {
+    synchronized (this)
+    {
+      if ((tileCache == null && itemCache == null) || viewTransformChangeThread == Thread.currentThread())
+        return;
+    }
+
+    // caches are expressed in document space
+    Point offset = renderer.getViewOffset();
+    float scale = renderer.getViewScale();
+    float left = x + offset.x;
+    float top = y + offset.y;
+    float right = left + width;
+    float bottom = top + height;
+    synchronized (this)
+    {
+      if (tileCache != null && layers.contains(LayerType.MODEL))
+        tileCache.invalidate(scale, left, top, right, bottom);
+      // a view rendering both layers may also record capture items
+      if (itemCache != null)
+        itemCache.invalidate(scale, left, top, right, bottom);
+    }
+  }
+
   private void prepare(android.graphics.Canvas canvas, Rect clipRect)
   {
     canvas.save();
@@ -217,9 +772,37 @@ public class LayerView extends View
   }
 
   public final void update(Renderer renderer, int x, int y, int width, int height)
+  {
+    update(renderer, x, y, width, height, EnumSet.allOf(LayerType.class));
+  }
+
+  public final void update(Renderer renderer, int x, int y, int width, int height, @NonNull EnumSet<LayerType> layers)
   {
     boolean emptyArea;
 
+    if (!rendersAnyOf(layers))
+      return;
+
+    if (rendersModel())
+      invalidateCaches(renderer, x, y, width, height, layers);
+
+    long delay = -1;
+    synchronized (this)
+    {
+      if (reducedQualityWhileMoving && viewTransformChangeThread == Thread.currentThread())
+      {
+        renderQuality = Canvas.RENDER_QUALITY_REDUCED;
+        motionRenderer = renderer;
+        delay = fullQualityDelay;
+      }
+    }
+    if (delay >= 0)
+    {
+      // the full quality frame is rendered once the view stops moving
+      removeCallbacks(fullQualityRunnable);
+      postDelayed(fullQualityRunnable, delay);
+    }
+
     // Direct draw
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P)
     {
@@ -237,11 +820,21 @@ public class LayerView extends View
     {
       synchronized (this)
       {
-        updateArea.union(x, y, x + width, y + height);
-        if (canvasWidth > 0 && canvasHeight > 0)
-          updateArea.intersect(new Rect(0, 0, canvasWidth, canvasHeight));
+        // the CAPTURE layer content is transient: it is rendered again instead of shifted
+        if (rendersModel() && viewTransformChangeThread == Thread.currentThread()
+            && x <= 0 && y <= 0 && x + width >= canvasWidth && y + height >= canvasHeight)
+        {
+          // the rendered content may be shifted instead of rendered again, see scrollBitmap()
+          viewTransformChanged = true;
+        }
+        else
+        {
+          updateArea.union(x, y, x + width, y + height);
+          if (canvasWidth > 0 && canvasHeight > 0)
+            updateArea.intersect(new Rect(0, 0, canvasWidth, canvasHeight));
+        }
 
-        emptyArea = updateArea.isEmpty();
+        emptyArea = updateArea.isEmpty() && !viewTransformChanged;
         lastRenderer = renderer;
       }
     }
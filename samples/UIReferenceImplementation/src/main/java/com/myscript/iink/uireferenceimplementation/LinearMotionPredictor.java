@@ -0,0 +1,76 @@
+// Copyright @ MyScript. All rights reserved.
+
+package com.myscript.iink.uireferenceimplementation;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Predicts motion by extrapolating the velocity of the pointer over its last samples.
+ */
+public class LinearMotionPredictor implements MotionPredictor
+{
+  private static final int SAMPLE_COUNT = 4; // power of two
+  // samples older than this are not used to estimate the velocity, so that there is no prediction
+  // after a pause of the pointer
+  private static final long VELOCITY_WINDOW_MS = 32;
+  private static final int PREDICTED_POINT_COUNT = 3;
+
+  private final float[] xs = new float[SAMPLE_COUNT];
+  private final float[] ys = new float[SAMPLE_COUNT];
+  private final long[] ts = new long[SAMPLE_COUNT];
+  private int sampleCount = 0;
+  private int lastIndex = -1;
+
+  @Override
+  public void reset()
+  {
+    sampleCount = 0;
+    lastIndex = -1;
+  }
+
+  @Override
+  public void record(float x, float y, long t)
+  {
+    if (sampleCount > 0 && t < ts[lastIndex])
+      return; // out of order sample
+
+    lastIndex = (lastIndex + 1) & (SAMPLE_COUNT - 1);
+    xs[lastIndex] = x;
+    ys[lastIndex] = y;
+    ts[lastIndex] = t;
+    sampleCount = Math.min(sampleCount + 1, SAMPLE_COUNT);
+  }
+
+  @Override
+  public int predict(float predictionTime, @NonNull float[] points)
+  {
+    if (sampleCount < 2 || predictionTime <= 0)
+      return 0;
+
+    // oldest sample within the velocity window
+    long lastT = ts[lastIndex];
+    int firstIndex = lastIndex;
+    for (int i = 1; i < sampleCount; ++i)
+    {
+      int index = (lastIndex - i) & (SAMPLE_COUNT - 1);
+      if (lastT - ts[index] > VELOCITY_WINDOW_MS)
+        break;
+      firstIndex = index;
+    }
+    long dt = lastT - ts[firstIndex];
+    if (dt <= 0)
+      return 0;
+
+    float vx = (xs[lastIndex] - xs[firstIndex]) / dt;
+    float vy = (ys[lastIndex] - ys[firstIndex]) / dt;
+
+    int count = Math.min(PREDICTED_POINT_COUNT, points.length / 2);
+    for (int i = 0; i < count; ++i)
+    {
+      float time = predictionTime * (i + 1) / count;
+      points[2 * i] = xs[lastIndex] + vx * time;
+      points[2 * i + 1] = ys[lastIndex] + vy * time;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,159 @@
+// Copyright @ MyScript. All rights reserved.
+
+package com.myscript.iink.uireferenceimplementation;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Cache of rendered MODEL layer tiles, keyed by view scale and document-space tile coordinates.
+ * <p>
+ * Document-space coordinates are view coordinates shifted by the renderer view offset, so a tile
+ * keeps its key while the view scrolls: only newly exposed tiles need to be rendered.
+ */
+final class ModelTileCache implements CacheRegistry.Cache
+{
+  static final int TILE_SIZE = 512; // in pixels
+
+  private static final class TileKey
+  {
+    final float scale;
+    final int column;
+    final int row;
+
+    TileKey(float scale, int column, int row)
+    {
+      this.scale = scale;
+      this.column = column;
+      this.row = row;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * (31 * Float.floatToIntBits(scale) + column) + row;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (obj == this)
+        return true;
+      if (!(obj instanceof TileKey))
+        return false;
+      TileKey other = (TileKey) obj;
+      return column == other.column && row == other.row && Float.compare(scale, other.scale) == 0;
+    }
+  }
+
+  @NonNull
+  private final LruCache<TileKey, Bitmap> tiles;
+  // incremented on each invalidation, so that tiles rendered during an invalidation are not cached
+  private int generation = 0;
+  // tiles rendered with reduced quality, only used for reduced quality frames
+  @NonNull
+  private final Set<TileKey> reducedQualityTiles = new HashSet<>();
+
+  ModelTileCache(int maxBytes)
+  {
+    // Evicted tiles are not recycled: they may still be referenced by the last recorded frame
+    tiles = new LruCache<TileKey, Bitmap>(Math.max(maxBytes, 1))
+    {
+      @Override
+      protected int sizeOf(TileKey key, Bitmap value)
+      {
+        return value.getByteCount();
+      }
+
+      @Override
+      protected void entryRemoved(boolean evicted, TileKey key, Bitmap oldValue, Bitmap newValue)
+      {
+        synchronized (ModelTileCache.this)
+        {
+          reducedQualityTiles.remove(key);
+        }
+      }
+    };
+  }
+
+  synchronized int getGeneration()
+  {
+    return generation;
+  }
+
+  /**
+   * @param fullQuality whether tiles rendered with reduced quality must be ignored.
+   */
+  @Nullable
+  synchronized Bitmap get(float scale, int column, int row, boolean fullQuality)
+  {
+    TileKey key = new TileKey(scale, column, row);
+    if (fullQuality && reducedQualityTiles.contains(key))
+      return null;
+    return tiles.get(key);
+  }
+
+  /**
+   * Stores a rendered tile, unless the cache was invalidated since the given generation.
+   */
+  synchronized void put(float scale, int column, int row, @NonNull Bitmap tile, boolean fullQuality, int renderGeneration)
+  {
+    if (renderGeneration != generation)
+      return;
+    TileKey key = new TileKey(scale, column, row);
+    tiles.put(key, tile);
+    if (!fullQuality)
+      reducedQualityTiles.add(key);
+  }
+
+  /**
+   * Drops the tiles intersecting a document-space area, at any cached scale.
+   *
+   * @param scale the view scale the area is expressed at.
+   */
+  synchronized void invalidate(float scale, float left, float top, float right, float bottom)
+  {
+    ++generation;
+    if (scale <= 0)
+    {
+      tiles.evictAll();
+      return;
+    }
+
+    for (TileKey key : tiles.snapshot().keySet())
+    {
+      float ratio = key.scale / scale;
+      float tileLeft = (float) key.column * TILE_SIZE;
+      float tileTop = (float) key.row * TILE_SIZE;
+      if (left * ratio < tileLeft + TILE_SIZE && tileLeft < right * ratio
+          && top * ratio < tileTop + TILE_SIZE && tileTop < bottom * ratio)
+      {
+        tiles.remove(key);
+      }
+    }
+  }
+
+  synchronized void clear()
+  {
+    ++generation;
+    tiles.evictAll();
+  }
+
+  @Override
+  public long getByteCount()
+  {
+    return tiles.size();
+  }
+
+  @Override
+  public synchronized void trim(float keepRatio)
+  {
+    tiles.trimToSize((int) (tiles.size() * keepRatio));
+  }
+}
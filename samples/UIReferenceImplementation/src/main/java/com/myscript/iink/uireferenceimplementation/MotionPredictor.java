@@ -0,0 +1,33 @@
+// Copyright @ MyScript. All rights reserved.
+
+package com.myscript.iink.uireferenceimplementation;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Predicts the next positions of a pointer from its recent samples, to draw ink ahead of the last
+ * received sample. Predicted points are only displayed, they are never sent to the editor.
+ */
+public interface MotionPredictor
+{
+  /**
+   * Forgets the recorded samples, at the start of a new stroke.
+   */
+  void reset();
+
+  /**
+   * Records a sample of the current stroke.
+   *
+   * @param t the sample time, in ms.
+   */
+  void record(float x, float y, long t);
+
+  /**
+   * Predicts points after the last recorded sample.
+   *
+   * @param predictionTime how far ahead of the last recorded sample to predict, in ms.
+   * @param points         receives the predicted points, as x, y pairs.
+   * @return the number of predicted points, at most {@code points.length / 2}.
+   */
+  int predict(float predictionTime, @NonNull float[] points);
+}
@@ -3,29 +3,67 @@
 package com.myscript.iink.uireferenceimplementation;
 
 import android.graphics.Bitmap;
+import android.graphics.Color;
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-public class OfflineSurfaceManager
+public class OfflineSurfaceManager implements CacheRegistry.Cache
 {
+  // Surfaces are allocated with their size rounded up to this step, so that they can be reused
+  // for slightly different sizes
+  private static final int SIZE_BUCKET_STEP = 64;
+  private static final float POOL_MAX_MEMORY_RATIO = 1.f / 16; // in ]0, 1[
+
   private int nextID = 0;
 
   private final SparseArray<Bitmap> offlineSurfaces = new SparseArray<>();
+  // Surfaces drawn into a hardware-accelerated canvas: the display lists may still reference them
+  // after their release, so they are not reused
+  private final SparseBooleanArray hardwareDrawnSurfaces = new SparseBooleanArray();
+
+  // Released surfaces, available for reuse, keyed by size bucket and config
+  private final Map<Long, ArrayDeque<Bitmap>> pool = new HashMap<>();
+  // Released surfaces, from least to most recently released
+  private final ArrayDeque<Bitmap> poolOrder = new ArrayDeque<>();
+  private long poolByteCount = 0;
+  private long poolMaxByteCount;
+
+  private long hitCount = 0;
+  private long missCount = 0;
+  private long evictionCount = 0;
+
+  public OfflineSurfaceManager()
+  {
+    this((long) (Runtime.getRuntime().maxMemory() * POOL_MAX_MEMORY_RATIO));
+  }
+
+  /**
+   * @param poolMaxByteCount the maximum size of the released surfaces kept for reuse, in bytes.
+   */
+  public OfflineSurfaceManager(long poolMaxByteCount)
+  {
+    this.poolMaxByteCount = poolMaxByteCount;
+  }
 
   public synchronized int create(int width, int height, boolean alphaOnly)
   {
-    int offscreenID = nextID++;
+    if (width <= 0 || height <= 0)
+      return -1;
 
-    Bitmap surface;
-    try
-    {
-      surface = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-    }
-    catch (Exception | OutOfMemoryError e)
-    {
+    // alpha-only surfaces (masks, blend sources) only need coverage: 1 byte per pixel instead of 4
+    Bitmap.Config config = alphaOnly ? Bitmap.Config.ALPHA_8 : Bitmap.Config.ARGB_8888;
+    Bitmap surface = acquire(width, height, config);
+    if (surface == null)
       return -1;
-    }
+
+    int offscreenID = nextID++;
     offlineSurfaces.put(offscreenID, surface);
 
     return offscreenID;
@@ -39,8 +77,23 @@ public class OfflineSurfaceManager
     // can be null after a rotation (a new OfflineSurfaceManager can be created during animations)
     if (bitmap == null)
       return;
-    bitmap.recycle();
     offlineSurfaces.remove(offscreenID);
+    boolean hardwareDrawn = hardwareDrawnSurfaces.get(offscreenID);
+    hardwareDrawnSurfaces.delete(offscreenID);
+    // neither pooled nor recycled: the surface is freed once no display list references it
+    if (hardwareDrawn)
+      return;
+    recycle(bitmap);
+  }
+
+  /**
+   * Marks a surface as drawn into a hardware-accelerated canvas, so that it is not reused after its
+   * release: the recorded display lists read its content when the frame is rendered.
+   */
+  public synchronized void markHardwareDrawn(int offscreenID)
+  {
+    if (offlineSurfaces.get(offscreenID) != null)
+      hardwareDrawnSurfaces.put(offscreenID, true);
   }
 
   @Nullable
@@ -49,4 +102,183 @@ public class OfflineSurfaceManager
     // can return null after a rotation (a new OfflineSurfaceManager can be created during animations)
     return offlineSurfaces.get(id);
   }
+
+  /**
+   * @return the size of the surfaces currently in use, in bytes.
+   */
+  public synchronized long getSurfaceByteCount()
+  {
+    long byteCount = 0;
+    for (int i = 0, count = offlineSurfaces.size(); i < count; ++i)
+      byteCount += offlineSurfaces.valueAt(i).getAllocationByteCount();
+    return byteCount;
+  }
+
+  /**
+   * Sets the maximum size of the released surfaces kept for reuse, evicting surfaces if needed.
+   */
+  public synchronized void setPoolMaxByteCount(long poolMaxByteCount)
+  {
+    this.poolMaxByteCount = poolMaxByteCount;
+    trimPool(poolMaxByteCount);
+  }
+
+  public synchronized long getPoolMaxByteCount()
+  {
+    return poolMaxByteCount;
+  }
+
+  /**
+   * @return the size of the released surfaces kept for reuse, in bytes.
+   */
+  public synchronized long getPoolByteCount()
+  {
+    return poolByteCount;
+  }
+
+  /**
+   * Recycles all the released surfaces kept for reuse.
+   */
+  public synchronized void clearPool()
+  {
+    trimPool(0);
+  }
+
+  @Override
+  public synchronized long getByteCount()
+  {
+    return poolByteCount + getSurfaceByteCount();
+  }
+
+  /**
+   * Recycles released surfaces kept for reuse (surfaces in use are not affected).
+   */
+  @Override
+  public synchronized void trim(float keepRatio)
+  {
+    trimPool((long) (poolByteCount * keepRatio));
+  }
+
+  /**
+   * @return the number of surfaces created from a released surface.
+   */
+  public synchronized long getHitCount()
+  {
+    return hitCount;
+  }
+
+  /**
+   * @return the number of surfaces that had to be allocated.
+   */
+  public synchronized long getMissCount()
+  {
+    return missCount;
+  }
+
+  /**
+   * @return the number of released surfaces recycled to keep the pool within its budget.
+   */
+  public synchronized long getEvictionCount()
+  {
+    return evictionCount;
+  }
+
+  @Nullable
+  private Bitmap acquire(int width, int height, @NonNull Bitmap.Config config)
+  {
+    int bucketWidth = toBucketSize(width);
+    int bucketHeight = toBucketSize(height);
+    long key = getPoolKey(bucketWidth, bucketHeight, config);
+
+    ArrayDeque<Bitmap> surfaces = pool.get(key);
+    Bitmap surface = surfaces != null ? surfaces.pollLast() : null;
+    if (surface != null)
+    {
+      ++hitCount;
+      poolOrder.remove(surface);
+      poolByteCount -= surface.getAllocationByteCount();
+      // the allocation is sized for the bucket, the surface is exposed with the requested size
+      surface.reconfigure(width, height, config);
+      surface.eraseColor(Color.TRANSPARENT);
+      return surface;
+    }
+
+    ++missCount;
+    try
+    {
+      surface = Bitmap.createBitmap(bucketWidth, bucketHeight, config);
+    }
+    catch (Exception | OutOfMemoryError e)
+    {
+      // free the pool and try again
+      trimPool(0);
+      try
+      {
+        surface = Bitmap.createBitmap(bucketWidth, bucketHeight, config);
+      }
+      catch (Exception | OutOfMemoryError e2)
+      {
+        return null;
+      }
+    }
+    surface.reconfigure(width, height, config);
+    return surface;
+  }
+
+  private void recycle(@NonNull Bitmap surface)
+  {
+    if (surface.isRecycled())
+      return;
+
+    int byteCount = surface.getAllocationByteCount();
+    if (byteCount > poolMaxByteCount)
+    {
+      ++evictionCount;
+      surface.recycle();
+      return;
+    }
+
+    Bitmap.Config config = surface.getConfig();
+    long key = getPoolKey(toBucketSize(surface.getWidth()), toBucketSize(surface.getHeight()), config);
+    ArrayDeque<Bitmap> surfaces = pool.get(key);
+    if (surfaces == null)
+    {
+      surfaces = new ArrayDeque<>();
+      pool.put(key, surfaces);
+    }
+    surfaces.addLast(surface);
+    poolOrder.addLast(surface);
+    poolByteCount += byteCount;
+
+    trimPool(poolMaxByteCount);
+  }
+
+  private void trimPool(long maxByteCount)
+  {
+    while (poolByteCount > maxByteCount && !poolOrder.isEmpty())
+    {
+      Bitmap surface = poolOrder.pollFirst();
+      long key = getPoolKey(toBucketSize(surface.getWidth()), toBucketSize(surface.getHeight()), surface.getConfig());
+      ArrayDeque<Bitmap> surfaces = pool.get(key);
+      if (surfaces != null)
+      {
+        surfaces.remove(surface);
+        if (surfaces.isEmpty())
+          pool.remove(key);
+      }
+      poolByteCount -= surface.getAllocationByteCount();
+      ++evictionCount;
+      surface.recycle();
+    }
+  }
+
+  private static int toBucketSize(int size)
+  {
+    return (size + SIZE_BUCKET_STEP - 1) / SIZE_BUCKET_STEP * SIZE_BUCKET_STEP;
+  }
+
+  private static long getPoolKey(int bucketWidth, int bucketHeight, @NonNull Bitmap.Config config)
+  {
+    return ((long) bucketWidth << 40) | ((long) bucketHeight << 16) | config.ordinal();
+  }
 }
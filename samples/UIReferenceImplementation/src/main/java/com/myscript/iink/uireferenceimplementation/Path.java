@@ -2,6 +2,8 @@
 
 package com.myscript.iink.uireferenceimplementation;
 
+import android.graphics.RectF;
+
 import com.myscript.iink.graphics.IPath;
 
 import java.util.EnumSet;
@@ -10,12 +12,65 @@ import androidx.annotation.NonNull;
 
 public class Path extends android.graphics.Path implements IPath
 {
+  private static final float EPSILON = 1e-6f;
+
+  // current point and start of the current sub-path, needed to convert SVG arcs
+  private float lastX = 0;
+  private float lastY = 0;
+  private float startX = 0;
+  private float startY = 0;
+  // number of points added, used to estimate the size of recorded draw calls
+  private int pointCount = 0;
+
+  @NonNull
+  private final RectF arcOval = new RectF();
 
   @NonNull
   @Override
   public EnumSet<OperationType> unsupportedOperations()
   {
-    return EnumSet.of(OperationType.ARC_OPS);
+    return EnumSet.noneOf(OperationType.class);
+  }
+
+  int getPointCount()
+  {
+    return pointCount;
+  }
+
+  @Override
+  public void moveTo(float x, float y)
+  {
+    super.moveTo(x, y);
+    ++pointCount;
+    lastX = startX = x;
+    lastY = startY = y;
+  }
+
+  @Override
+  public void lineTo(float x, float y)
+  {
+    super.lineTo(x, y);
+    ++pointCount;
+    lastX = x;
+    lastY = y;
+  }
+
+  @Override
+  public void quadTo(float x1, float y1, float x2, float y2)
+  {
+    super.quadTo(x1, y1, x2, y2);
+    pointCount += 2;
+    lastX = x2;
+    lastY = y2;
+  }
+
+  @Override
+  public void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3)
+  {
+    super.cubicTo(x1, y1, x2, y2, x3, y3);
+    pointCount += 3;
+    lastX = x3;
+    lastY = y3;
   }
 
   @Override
@@ -24,10 +79,114 @@ public class Path extends android.graphics.Path implements IPath
     cubicTo(x1, y1, x2, y2, x, y);
   }
 
+  /**
+   * Adds an SVG elliptical arc from the current point to (x, y), using the endpoint to center
+   * parameterization conversion of the SVG specification (appendix B.2.4).
+   *
+   * @param phi the rotation of the ellipse x-axis, in radians.
+   */
   @Override
   public void arcTo(float rx, float ry, float phi, boolean fA, boolean fS, float x, float y)
   {
-    throw new UnsupportedOperationException("arcTo");
+    final float x1 = lastX;
+    final float y1 = lastY;
+
+    if (x1 == x && y1 == y)
+      return; // arc is omitted
+
+    rx = Math.abs(rx);
+    ry = Math.abs(ry);
+    if (rx < EPSILON || ry < EPSILON)
+    {
+      lineTo(x, y);
+      return;
+    }
+
+    final double cosPhi = Math.cos(phi);
+    final double sinPhi = Math.sin(phi);
+
+    // compute (x1', y1')
+    double dx2 = (x1 - x) / 2.0;
+    double dy2 = (y1 - y) / 2.0;
+    double x1p = cosPhi * dx2 + sinPhi * dy2;
+    double y1p = -sinPhi * dx2 + cosPhi * dy2;
+
+    // ensure radii are large enough
+    double rxSq = (double) rx * rx;
+    double rySq = (double) ry * ry;
+    double x1pSq = x1p * x1p;
+    double y1pSq = y1p * y1p;
+    double lambda = x1pSq / rxSq + y1pSq / rySq;
+    if (lambda > 1)
+    {
+      double scale = Math.sqrt(lambda);
+      rx *= (float) scale;
+      ry *= (float) scale;
+      rxSq = (double) rx * rx;
+      rySq = (double) ry * ry;
+    }
+
+    // compute (cx', cy')
+    double numerator = rxSq * rySq - rxSq * y1pSq - rySq * x1pSq;
+    double denominator = rxSq * y1pSq + rySq * x1pSq;
+    double coef = denominator == 0 ? 0 : Math.sqrt(Math.max(0, numerator / denominator));
+    if (fA == fS)
+      coef = -coef;
+    double cxp = coef * rx * y1p / ry;
+    double cyp = -coef * ry * x1p / rx;
+
+    // compute (cx, cy) from (cx', cy')
+    double cx = cosPhi * cxp - sinPhi * cyp + (x1 + x) / 2.0;
+    double cy = sinPhi * cxp + cosPhi * cyp + (y1 + y) / 2.0;
+
+    // compute start angle and sweep angle
+    double theta1 = Math.atan2((y1p - cyp) / ry, (x1p - cxp) / rx);
+    double theta2 = Math.atan2((-y1p - cyp) / ry, (-x1p - cxp) / rx);
+    double deltaTheta = theta2 - theta1;
+    if (!fS && deltaTheta > 0)
+      deltaTheta -= 2 * Math.PI;
+    else if (fS && deltaTheta < 0)
+      deltaTheta += 2 * Math.PI;
+
+    if (Math.abs(sinPhi) < EPSILON)
+    {
+      // axis-aligned ellipse: native arc (a half-turn rotation only shifts the parametric angles)
+      double startAngle = cosPhi > 0 ? theta1 : theta1 + Math.PI;
+      arcOval.set((float) (cx - rx), (float) (cy - ry), (float) (cx + rx), (float) (cy + ry));
+      super.arcTo(arcOval, (float) Math.toDegrees(startAngle), (float) Math.toDegrees(deltaTheta), false);
+      pointCount += 12; // up to 4 cubic segments
+    }
+    else
+    {
+      // rotated ellipse: approximate with one cubic Bezier segment per quarter of ellipse at most
+      int segmentCount = Math.max(1, (int) Math.ceil(Math.abs(deltaTheta) / (Math.PI / 2) - EPSILON));
+      double delta = deltaTheta / segmentCount;
+      double t = 4.0 / 3.0 * Math.tan(delta / 4);
+      double angle = theta1;
+      for (int i = 0; i < segmentCount; ++i)
+      {
+        double cos1 = Math.cos(angle);
+        double sin1 = Math.sin(angle);
+        angle += delta;
+        double cos2 = Math.cos(angle);
+        double sin2 = Math.sin(angle);
+
+        // control points on the unit circle, then mapped to the ellipse
+        double ux1 = cos1 - t * sin1;
+        double uy1 = sin1 + t * cos1;
+        double ux2 = cos2 + t * sin2;
+        double uy2 = sin2 - t * cos2;
+
+        super.cubicTo(
+            (float) (cx + rx * ux1 * cosPhi - ry * uy1 * sinPhi), (float) (cy + rx * ux1 * sinPhi + ry * uy1 * cosPhi),
+            (float) (cx + rx * ux2 * cosPhi - ry * uy2 * sinPhi), (float) (cy + rx * ux2 * sinPhi + ry * uy2 * cosPhi),
+            (float) (cx + rx * cos2 * cosPhi - ry * sin2 * sinPhi), (float) (cy + rx * cos2 * sinPhi + ry * sin2 * cosPhi));
+      }
+      pointCount += 3 * segmentCount;
+    }
+
+    lastX = x;
+    lastY = y;
   }
 
   @Override
@@ -36,4 +195,27 @@ public class Path extends android.graphics.Path implements IPath
     close();
   }
 
+  @Override
+  public void close()
+  {
+    super.close();
+    lastX = startX;
+    lastY = startY;
+  }
+
+  @Override
+  public void reset()
+  {
+    super.reset();
+    lastX = lastY = startX = startY = 0;
+    pointCount = 0;
+  }
+
+  @Override
+  public void rewind()
+  {
+    super.rewind();
+    lastX = lastY = startX = startY = 0;
+    pointCount = 0;
+  }
 }
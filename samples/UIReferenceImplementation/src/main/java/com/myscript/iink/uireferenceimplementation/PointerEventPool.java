@@ -0,0 +1,52 @@
+// Copyright @ MyScript. All rights reserved.
+
+package com.myscript.iink.uireferenceimplementation;
+
+import com.myscript.iink.PointerEvent;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Reusable pointer events, to send batches of samples to the editor without allocating: the editor
+ * does not retain the events, so they can be mutated in place once a batch has been sent.
+ * <p>
+ * Not thread-safe: each thread sending events uses its own pool.
+ */
+final class PointerEventPool
+{
+  static final int BATCH_MAX_SIZE = 64;
+
+  private final PointerEvent[] pointerEvents = new PointerEvent[BATCH_MAX_SIZE];
+  // batches[n] is an array of the first n events
+  private final PointerEvent[][] batches = new PointerEvent[BATCH_MAX_SIZE + 1][];
+
+  /**
+   * @return an array of {@code size} pointer events, only valid until the next call.
+   */
+  @NonNull
+  PointerEvent[] getBatch(int size)
+  {
+    if (size > BATCH_MAX_SIZE)
+    {
+      // unusually long batch: not worth keeping
+      PointerEvent[] batch = new PointerEvent[size];
+      for (int i = 0; i < size; ++i)
+        batch[i] = new PointerEvent();
+      return batch;
+    }
+
+    PointerEvent[] batch = batches[size];
+    if (batch == null)
+    {
+      batch = new PointerEvent[size];
+      for (int i = 0; i < size; ++i)
+      {
+        if (pointerEvents[i] == null)
+          pointerEvents[i] = new PointerEvent();
+        batch[i] = pointerEvents[i];
+      }
+      batches[size] = batch;
+    }
+    return batch;
+  }
+}
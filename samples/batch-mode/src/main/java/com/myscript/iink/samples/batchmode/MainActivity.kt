@@ -119,7 +119,7 @@ class MainActivity : AppCompatActivity() {
     }
 
     private fun provideTypefaces(): Map<String, Typeface> {
-        val typefaces = FontUtils.loadFontsFromAssets(application.assets) ?: mutableMapOf()
+        val typefaces = FontUtils.loadFontsFromAssets(application) ?: mutableMapOf()
         // Map key must be aligned with the font-family used in theme.css
         val myscriptInterFont = ResourcesCompat.getFont(application, R.font.myscriptinter)
         if (myscriptInterFont != null) {
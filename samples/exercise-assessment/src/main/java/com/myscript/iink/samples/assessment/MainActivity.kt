@@ -68,7 +68,7 @@ class MainActivity : AppCompatActivity(), IEditorListener {
             return
 
         val editorBinding = EditorBinding(MyIInkApplication.getEngine(),
-            FontUtils.loadFontsFromAssets(application.assets) ?: emptyMap())
+            FontUtils.loadFontsFromAssets(application) ?: emptyMap())
 
         val editorData = editorBinding.openEditor(editorView)
         editorData.inputController?.setViewListener(editorView)
@@ -128,7 +128,7 @@ class EditorViewModel(application: Application) : AndroidViewModel(application)
     fun openEditor(engine: Engine, editorView: EditorView) {
         val context = editorView.context.applicationContext
 
-        val typefaceMap = FontUtils.loadFontsFromAssets(context.assets)
+        val typefaceMap = FontUtils.loadFontsFromAssets(context)
         editorView.setTypefaces(typefaceMap)
 
         val editorBinding = EditorBinding(engine, typefaceMap)
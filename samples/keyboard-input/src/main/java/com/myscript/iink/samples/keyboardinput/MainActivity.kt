@@ -187,7 +187,7 @@ class MainActivity : AppCompatActivity() {
 
         setContentView(binding.root)
 
-        val typefaceMap = FontUtils.loadFontsFromAssets(applicationContext.assets)
+        val typefaceMap = FontUtils.loadFontsFromAssets(applicationContext)
 
         editorView = findViewById<EditorView?>(com.myscript.iink.uireferenceimplementation.R.id.editor_view).apply {
             setTypefaces(typefaceMap)
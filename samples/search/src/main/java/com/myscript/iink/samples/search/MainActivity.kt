@@ -113,7 +113,7 @@ class MainActivity : AppCompatActivity(), View.OnClickListener {
         }
 
         val editorBinding = EditorBinding(MyIInkApplication.getEngine(),
-            FontUtils.loadFontsFromAssets(application.assets) ?: emptyMap())
+            FontUtils.loadFontsFromAssets(application) ?: emptyMap())
 
         editorData = editorBinding.openEditor(editorView)
         editorData?.inputController?.setViewListener(editorView)
@@ -184,6 +184,7 @@ class MainActivity : AppCompatActivity(), View.OnClickListener {
     override fun onDestroy() {
         // this may be called when rotating screen
         // TODO : think about how to keep data when rotating screen
+        editorData?.inputController?.close()
         editorView?.editor?.part?.close()
         editorView?.editor?.clear()
         editorView?.editor?.close()